@@ -0,0 +1,76 @@
+package br.aps.aps_6sem;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * Wraps a {@link Handler} (e.g. a {@code FileHandler} or {@code ConsoleHandler}) so that publishing
+ * a record only queues it; a {@link BackgroundWriter} does the formatting and I/O. Records are
+ * dropped rather than blocking when the buffer is full.
+ */
+public class AsyncLogHandler extends Handler {
+
+    private static final int BUFFER_CAPACITY = 4096;
+
+    private final Handler target;
+    private final BackgroundWriter<LogRecord> writer;
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    private AsyncLogHandler(Handler target) {
+        this.target = target;
+        writer = new BackgroundWriter<>("async-log-writer", BUFFER_CAPACITY, new BackgroundWriter.Sink<>() {
+            @Override
+            public void write(LogRecord record) {
+                target.publish(record);
+            }
+
+            @Override
+            public void endOfBatch() {
+                target.flush();
+            }
+        });
+    }
+
+    /**
+     * Wraps {@code target} and starts the writer thread. Records below the level of
+     * {@code target} are not queued. The handler is closed on JVM shutdown.
+     */
+    public static AsyncLogHandler start(Handler target) {
+        AsyncLogHandler handler = new AsyncLogHandler(target);
+        handler.setLevel(target.getLevel());
+        handler.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(handler::close));
+        return handler;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        // Fill in the caller now; inferring it later on the writer thread would give the wrong class/method
+        record.getSourceClassName();
+        if (!writer.offer(record)) {
+            droppedRecords.incrementAndGet();
+        }
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    @Override
+    public void flush() {
+        // The writer thread flushes after every batch
+    }
+
+    @Override
+    public void close() {
+        if (!writer.isRunning()) {
+            return;
+        }
+        writer.close();
+        target.close();
+    }
+}
@@ -0,0 +1,238 @@
+package br.aps.aps_6sem;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous, structured audit log of login events.
+ * <p>
+ * {@link #record} only places the event in a lock-free {@link RingBuffer}; a {@link BackgroundWriter}
+ * writes the events in batches as compact binary records to rotating {@code audit-*.bin} files.
+ * When the buffer is full the event is dropped (and counted) instead of blocking the caller.
+ * Use {@link AuditQuery} to read the files back.
+ * <p>
+ * The folder is {@code audit} unless {@code -Daps.auditDir} is set.
+ */
+public class AuditLog {
+
+    private static final Logger LOGGER = Logger.getLogger(AuditLog.class.getName());
+
+    static final int MAGIC = 0x41505341; // "APSA"
+    static final int VERSION = 1;
+    static final String FILE_PREFIX = "audit-";
+    static final String FILE_EXTENSION = ".bin";
+
+    private static final int BUFFER_CAPACITY = 8192;
+    private static final long MAX_FILE_BYTES = 8L * 1024 * 1024; // Rotate after 8 MB
+    private static final int MAX_FILES = 20; // Oldest files are deleted beyond this
+    static final int MAX_STRING_CHARS = 256; // Longer user names and camera ids are truncated
+
+    public enum EventType {
+        LOGIN, USER_NOT_FOUND, REGISTRATION, VERIFY, IDENTIFY
+    }
+
+    /**
+     * One audit record. Latencies are in nanoseconds, 0 when a stage did not run.
+     */
+    public record Event(long timestampMillis, EventType type, String userName, String camera, boolean success,
+                        double score, long captureNanos, long verifyNanos, long totalNanos) {
+    }
+
+    private static class Holder {
+        static final AuditLog DEFAULT = start(new File(System.getProperty("aps.auditDir", "audit")));
+    }
+
+    private final File folder;
+    private final BackgroundWriter<Event> writer;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final Thread shutdownHook;
+
+    // Only touched by the writer thread
+    private DataOutputStream out;
+    private long fileBytes;
+    private int rotations = 0;
+    private long reportedDrops = 0;
+
+    private AuditLog(File folder) {
+        this.folder = folder;
+        writer = new BackgroundWriter<>("audit-log-writer", BUFFER_CAPACITY, new BackgroundWriter.Sink<>() {
+            @Override
+            public void write(Event event) {
+                writeEvent(event);
+            }
+
+            @Override
+            public void endOfBatch() {
+                flushAndReportDrops();
+            }
+
+            @Override
+            public void close() {
+                closeFile();
+            }
+        });
+        shutdownHook = new Thread(this::close);
+    }
+
+    /**
+     * Creates an audit log writing to {@code folder} and starts its writer thread. The log is closed
+     * on JVM shutdown if {@link #close} was not called before.
+     */
+    public static AuditLog start(File folder) {
+        AuditLog log = new AuditLog(folder);
+        log.writer.start();
+        Runtime.getRuntime().addShutdownHook(log.shutdownHook);
+        return log;
+    }
+
+    /**
+     * Shared audit log, started on first use.
+     */
+    public static AuditLog getDefault() {
+        return Holder.DEFAULT;
+    }
+
+    /**
+     * Queues an event without blocking. Returns {@code false} if the event was dropped.
+     */
+    public boolean record(EventType type, String userName, String camera, boolean success, double score,
+                          long captureNanos, long verifyNanos, long totalNanos) {
+        Event event = new Event(System.currentTimeMillis(), type, truncate(userName), truncate(camera), success,
+                score, captureNanos, verifyNanos, totalNanos);
+        if (!writer.offer(event)) {
+            droppedEvents.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Stops the writer after it has written everything already queued.
+     */
+    public void close() {
+        if (!writer.isRunning()) {
+            return;
+        }
+        writer.close();
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is already shutting down
+            }
+        }
+    }
+
+    private void writeEvent(Event event) {
+        try {
+            write(event);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error writing audit log", e);
+            closeFile(); // The next event starts a new file
+        }
+    }
+
+    private void flushAndReportDrops() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error writing audit log", e);
+                closeFile();
+            }
+        }
+
+        long drops = droppedEvents.get();
+        if (drops != reportedDrops) {
+            LOGGER.warning("Audit log dropped " + (drops - reportedDrops) + " events (buffer full)");
+            reportedDrops = drops;
+        }
+    }
+
+    private void write(Event event) throws IOException {
+        if (out == null || fileBytes >= MAX_FILE_BYTES) {
+            rotate();
+        }
+        int before = out.size();
+        out.writeLong(event.timestampMillis());
+        out.writeByte(event.type().ordinal());
+        out.writeUTF(event.userName()); // Bounded by truncate(), so writeUTF cannot fail half-way
+        out.writeUTF(event.camera());
+        out.writeBoolean(event.success());
+        out.writeDouble(event.score());
+        out.writeLong(event.captureNanos());
+        out.writeLong(event.verifyNanos());
+        out.writeLong(event.totalNanos());
+        fileBytes += out.size() - before;
+    }
+
+    private void rotate() throws IOException {
+        closeFile();
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+
+        File[] files = listFiles(folder);
+        for (int i = 0; i <= files.length - MAX_FILES; i++) {
+            files[i].delete();
+        }
+
+        // The rotation counter keeps names unique (and sortable) when two files start in the same millisecond
+        File file = new File(folder, String.format("%s%d-%04d%s",
+                FILE_PREFIX, System.currentTimeMillis(), rotations++ % 10000, FILE_EXTENSION));
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        fileBytes = out.size();
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error closing audit log", e);
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Replaces {@code null} with an empty string and cuts {@code value} to {@code MAX_STRING_CHARS}
+     * characters, without splitting a surrogate pair.
+     */
+    static String truncate(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.length() <= MAX_STRING_CHARS) {
+            return value;
+        }
+        int end = Character.isHighSurrogate(value.charAt(MAX_STRING_CHARS - 1)) ? MAX_STRING_CHARS - 1 : MAX_STRING_CHARS;
+        return value.substring(0, end);
+    }
+
+    /**
+     * Audit files of {@code folder}, oldest first.
+     */
+    static File[] listFiles(File folder) {
+        File[] files = folder.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_EXTENSION));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        return files;
+    }
+}
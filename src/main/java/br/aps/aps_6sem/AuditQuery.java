@@ -0,0 +1,115 @@
+package br.aps.aps_6sem;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads the files written by {@link AuditLog} and prints, per door (camera), the number of login
+ * attempts, the failure rate and latency percentiles for each stage.
+ * <p>
+ * Usage: {@code AuditQuery [auditFolder] [sinceEpochMillis]}
+ */
+public class AuditQuery {
+
+    private static class DoorStats {
+        int attempts = 0;
+        int failures = 0;
+        final LatencyStats capture = new LatencyStats();
+        final LatencyStats verify = new LatencyStats();
+        final LatencyStats total = new LatencyStats();
+
+        void add(AuditLog.Event event) {
+            attempts++;
+            if (!event.success()) {
+                failures++;
+            }
+            if (event.captureNanos() > 0) {
+                capture.record(event.captureNanos());
+            }
+            if (event.verifyNanos() > 0) {
+                verify.record(event.verifyNanos());
+            }
+            if (event.totalNanos() > 0) {
+                total.record(event.totalNanos());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        File folder = new File(args.length > 0 ? args[0] : System.getProperty("aps.auditDir", "audit"));
+        long since = args.length > 1 ? Long.parseLong(args[1]) : 0;
+
+        Map<String, DoorStats> doors = new TreeMap<>();
+        for (File file : AuditLog.listFiles(folder)) {
+            readFile(file, since, doors);
+        }
+
+        if (doors.isEmpty()) {
+            System.out.println("No audit events in " + folder.getAbsolutePath());
+            return;
+        }
+        for (Map.Entry<String, DoorStats> entry : doors.entrySet()) {
+            DoorStats stats = entry.getValue();
+            System.out.println(String.format(Locale.ROOT, "door=%s attempts=%d failures=%d failureRate=%.2f%%",
+                    entry.getKey(), stats.attempts, stats.failures, 100.0 * stats.failures / stats.attempts));
+            System.out.println("  " + stats.capture.format("capture"));
+            System.out.println("  " + stats.verify.format("verify"));
+            System.out.println("  " + stats.total.format("total"));
+        }
+    }
+
+    private static void readFile(File file, long since, Map<String, DoorStats> doors) throws IOException {
+        for (AuditLog.Event event : readEvents(file)) {
+            // Only login decisions count as attempts
+            if (event.timestampMillis() >= since && event.type() != AuditLog.EventType.REGISTRATION) {
+                doors.computeIfAbsent(event.camera(), camera -> new DoorStats()).add(event);
+            }
+        }
+    }
+
+    /**
+     * Events of one audit file. A file that is not an audit log, or the rest of a file after a
+     * corrupt record, is skipped with a message.
+     */
+    static List<AuditLog.Event> readEvents(File file) throws IOException {
+        List<AuditLog.Event> events = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != AuditLog.MAGIC || in.readInt() != AuditLog.VERSION) {
+                System.err.println("Skipping " + file.getName() + ": not an audit log (or unsupported version)");
+                return events;
+            }
+
+            AuditLog.EventType[] types = AuditLog.EventType.values();
+            while (true) {
+                try {
+                    long timestampMillis = in.readLong();
+                    int type = in.readUnsignedByte();
+                    if (type >= types.length) {
+                        System.err.println("Skipping the rest of " + file.getName() + ": unknown event type " + type);
+                        break;
+                    }
+                    events.add(new AuditLog.Event(timestampMillis, types[type], in.readUTF(), in.readUTF(),
+                            in.readBoolean(), in.readDouble(), in.readLong(), in.readLong(), in.readLong()));
+                } catch (EOFException e) {
+                    break; // End of file, or a record cut short by a crash
+                } catch (UTFDataFormatException e) {
+                    System.err.println("Skipping the rest of " + file.getName() + ": corrupt record");
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            System.err.println("Skipping " + file.getName() + ": file too short");
+        }
+        return events;
+    }
+}
@@ -0,0 +1,114 @@
+package br.aps.aps_6sem;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single background thread that drains a {@link RingBuffer} into a {@link Sink}, so callers only
+ * pay for queueing an item. Shared by {@link AuditLog}, {@link AsyncLogHandler} and
+ * {@link SessionRecorder}.
+ * <p>
+ * The thread parks while the buffer is empty and is unparked by the first producer that finds it
+ * asleep, so an idle writer costs nothing.
+ */
+final class BackgroundWriter<T> {
+
+    /**
+     * Receives the items on the writer thread.
+     */
+    interface Sink<T> {
+
+        void write(T item);
+
+        /**
+         * Called after each batch of items, e.g. to flush.
+         */
+        default void endOfBatch() {
+        }
+
+        /**
+         * Called once on the writer thread after everything queued before {@link #close} was written.
+         */
+        default void close() {
+        }
+    }
+
+    private final RingBuffer<T> buffer;
+    private final Sink<T> sink;
+    private final Thread thread;
+    private final AtomicBoolean sleeping = new AtomicBoolean();
+    private volatile boolean isRunning = true;
+
+    BackgroundWriter(String threadName, int capacity, Sink<T> sink) {
+        this.buffer = new RingBuffer<>(capacity);
+        this.sink = sink;
+        this.thread = Thread.ofPlatform().name(threadName).daemon().unstarted(this::writeLoop);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Queues an item without blocking. Returns {@code false} when the buffer is full or the writer
+     * is closed; the caller decides whether to drop or retry.
+     */
+    boolean offer(T item) {
+        if (!isRunning || !buffer.offer(item)) {
+            return false;
+        }
+        if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * Stops the writer after it has written everything already queued.
+     */
+    void close() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            boolean running = isRunning; // Read before draining so nothing queued before close() is lost
+            int written = 0;
+            T item;
+            while ((item = buffer.poll()) != null) {
+                sink.write(item);
+                written++;
+            }
+            if (written > 0) {
+                sink.endOfBatch();
+            }
+
+            if (!running) {
+                break;
+            }
+            if (written == 0) {
+                // Announce the sleep before the last look at the buffer, so a producer that
+                // publishes meanwhile either is seen here or sees the flag and unparks
+                sleeping.set(true);
+                if (buffer.isEmpty() && isRunning) {
+                    LockSupport.park(this);
+                }
+                sleeping.set(false);
+            }
+        }
+        sink.close();
+    }
+}
@@ -0,0 +1,76 @@
+package br.aps.aps_6sem;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Verification logic shared by the JavaFX app and the headless tools. Has no UI dependencies.
+ */
+public final class FaceMatcher {
+
+    public static final String IMAGES_FOLDER = "imagens_rosto"; // Base folder for user images
+    public static final String DEFAULT_CASCADE = "Cascade" + File.separator + "haarcascade_frontalface_default.xml"; // Used by the headless tools
+    public static final int MAX_LOGIN_CAPTURES = 5; // Number of images to capture for login
+    public static final double SIMILARITY_THRESHOLD = 0.3; // 20% similarity threshold
+
+    private FaceMatcher() {
+    }
+
+    public static List<Mat> loadImages(File folder) {
+        List<Mat> images = new ArrayList<>();
+        if (folder.exists() && folder.isDirectory()) {
+            File[] files = folder.listFiles((dir, name) -> name.endsWith(".jpg"));
+            if (files != null) {
+                for (File file : files) {
+                    Mat image = Imgcodecs.imread(file.getAbsolutePath());
+                    images.add(image);
+                }
+            }
+        }
+        return images;
+    }
+
+    public static double averageSimilarity(List<Mat> liveImages, List<Mat> registeredImages) {
+        // Calculate the similarity between the live images and the registered images
+        double totalSimilarity = 0.0;
+        for (Mat liveImage : liveImages) {
+            for (Mat registeredImage : registeredImages) {
+                totalSimilarity += calculateSimilarity(liveImage, registeredImage);
+            }
+        }
+
+        // Calculate the average similarity
+        return totalSimilarity / (liveImages.size() * registeredImages.size());
+    }
+
+    public static boolean isMatch(double averageSimilarity) {
+        return averageSimilarity >= SIMILARITY_THRESHOLD;
+    }
+
+    public static double calculateSimilarity(Mat image1, Mat image2) {
+        // Convert images to grayscale
+        Mat grayImage1 = new Mat();
+        Imgproc.cvtColor(image1, grayImage1, Imgproc.COLOR_BGR2GRAY);
+
+        Mat grayImage2 = new Mat();
+        Imgproc.cvtColor(image2, grayImage2, Imgproc.COLOR_BGR2GRAY);
+
+        // Calculate the normalized cross-correlation coefficient
+        Mat result = new Mat();
+        Imgproc.matchTemplate(grayImage1, grayImage2, result, Imgproc.TM_CCOEFF_NORMED);
+
+        // Get the maximum similarity value
+        Core.MinMaxLocResult mmr = Core.minMaxLoc(result);
+
+        grayImage1.release();
+        grayImage2.release();
+        result.release();
+        return mmr.maxVal;
+    }
+}
@@ -0,0 +1,242 @@
+package br.aps.aps_6sem;
+
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Headless face detection and verification. This is the programmatic API used by the JavaFX app,
+ * {@link VerificationServer} and the command line tools; it has no UI dependencies and is safe to
+ * call from many threads.
+ */
+public class FaceVerificationService {
+
+    /**
+     * Outcome of a verification or identification. {@code userName} is {@code null} when
+     * identification found no registered user; {@code liveImages} is the number of captured images
+     * that were scored (0 when no face was found, and the score is then 0).
+     */
+    public record Result(String userName, boolean match, double score, int liveImages) {
+    }
+
+    private final File imagesFolder;
+    // CascadeClassifier instances are not shared between threads; callers borrow one from the pool
+    private final BlockingQueue<CascadeClassifier> detectors;
+
+    public FaceVerificationService(String cascadePath, String imagesFolder) throws IOException {
+        this(cascadePath, imagesFolder, Runtime.getRuntime().availableProcessors());
+    }
+
+    public FaceVerificationService(String cascadePath, String imagesFolder, int detectorCount) throws IOException {
+        if (!new File(cascadePath).exists()) {
+            throw new IOException("Classifier file does not exist: " + new File(cascadePath).getAbsolutePath());
+        }
+
+        this.imagesFolder = new File(imagesFolder);
+        this.detectors = new ArrayBlockingQueue<>(detectorCount);
+        for (int i = 0; i < detectorCount; i++) {
+            CascadeClassifier detector = new CascadeClassifier();
+            if (!detector.load(cascadePath)) {
+                throw new IOException("Error loading Haar Cascade classifier: " + cascadePath);
+            }
+            detectors.add(detector);
+        }
+    }
+
+    /**
+     * Runs the motion pre-stage and, when needed, the cascade on one frame.
+     *
+     * @return the faces currently in the frame (see {@link MotionDetector#detectFaces})
+     */
+    public Rect[] detectFaces(MotionDetector motionDetector, Mat frame) throws InterruptedException {
+        CascadeClassifier detector = detectors.take();
+        try {
+            return motionDetector.detectFaces(detector, frame);
+        } finally {
+            detectors.put(detector);
+        }
+    }
+
+    /**
+     * Applies the login capture rule frame by frame, exactly as the app does: faces are outlined
+     * and, of the first {@link FaceMatcher#MAX_LOGIN_CAPTURES} frames, those containing a face are
+     * kept, JPEG-encoded and decoded again as the app stores them in {@code img_temp}. Frames after
+     * that are still tracked but never scored, so a login scores between 0 and
+     * {@code MAX_LOGIN_CAPTURES} images.
+     */
+    public class Capture {
+
+        private final MotionDetector motionDetector = new MotionDetector();
+        private final List<Mat> liveImages = new ArrayList<>();
+        private Rect[] faces = new Rect[0];
+        private int frameIndex = 0;
+
+        /**
+         * Processes one frame (the frame is modified) and returns the faces found in it.
+         */
+        public Rect[] addFrame(Mat frame) throws InterruptedException {
+            faces = detectFaces(motionDetector, frame);
+
+            drawFaces(frame, faces);
+            if (faces.length > 0 && frameIndex < FaceMatcher.MAX_LOGIN_CAPTURES) {
+                liveImages.add(jpegRoundTrip(frame));
+            }
+            frameIndex++;
+            return faces;
+        }
+
+        public List<Mat> getLiveImages() {
+            return liveImages;
+        }
+
+        public MotionDetector getMotionDetector() {
+            return motionDetector;
+        }
+
+        public int getFrameCount() {
+            return frameIndex;
+        }
+
+        public void release() {
+            motionDetector.release();
+            liveImages.forEach(Mat::release);
+        }
+    }
+
+    public Capture newCapture() {
+        return new Capture();
+    }
+
+    /**
+     * Verifies that the frames show {@code userName}.
+     */
+    public Result verify(String userName, List<Mat> frames) throws InterruptedException {
+        Capture capture = capture(frames);
+        try {
+            return verifyLiveImages(userName, capture.getLiveImages());
+        } finally {
+            capture.release();
+        }
+    }
+
+    /**
+     * Finds the registered user that best matches the frames.
+     */
+    public Result identify(List<Mat> frames) throws InterruptedException {
+        Capture capture = capture(frames);
+        List<Mat> liveImages = capture.getLiveImages();
+        try {
+            Result best = new Result(null, false, 0.0, liveImages.size());
+            for (String userName : listUsers()) {
+                List<Mat> registeredImages = FaceMatcher.loadImages(userFolder(userName));
+                Result result = compare(userName, liveImages, registeredImages);
+                registeredImages.forEach(Mat::release);
+                if (result.match() && result.score() > best.score()) {
+                    best = result;
+                }
+            }
+            return best;
+        } finally {
+            capture.release();
+        }
+    }
+
+    /**
+     * Compares images that were already selected (e.g. the contents of {@code img_temp}) with the
+     * registration of {@code userName}.
+     */
+    public Result verifyLiveImages(String userName, List<Mat> liveImages) {
+        List<Mat> registeredImages = loadRegisteredImages(userName);
+        try {
+            return compare(userName, liveImages, registeredImages);
+        } finally {
+            registeredImages.forEach(Mat::release);
+        }
+    }
+
+    /**
+     * Whether {@code userName} is one of {@link #listUsers()}. Names coming from requests are only
+     * ever resolved against the images folder after this check.
+     */
+    public boolean isRegistered(String userName) {
+        return userName != null && listUsers().contains(userName);
+    }
+
+    public List<String> listUsers() {
+        List<String> users = new ArrayList<>();
+        File[] folders = imagesFolder.listFiles(File::isDirectory);
+        if (folders != null) {
+            for (File folder : folders) {
+                users.add(folder.getName());
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Registered images of {@code userName}, or an empty list when the user is not registered.
+     */
+    public List<Mat> loadRegisteredImages(String userName) {
+        if (!isRegistered(userName)) {
+            return new ArrayList<>();
+        }
+        return FaceMatcher.loadImages(userFolder(userName));
+    }
+
+    /**
+     * Scores live images against registered images that the caller already loaded, so a batch of
+     * requests for the same user only reads the registration once.
+     */
+    public Result compare(String userName, List<Mat> liveImages, List<Mat> registeredImages) {
+        if (liveImages.isEmpty() || registeredImages.isEmpty()) {
+            return new Result(userName, false, 0.0, liveImages.size()); // No face captured, or user not registered
+        }
+        double score = FaceMatcher.averageSimilarity(liveImages, registeredImages);
+        return new Result(userName, FaceMatcher.isMatch(score), score, liveImages.size());
+    }
+
+    /**
+     * Runs the capture rule over a complete batch of frames. The frames are modified.
+     */
+    public Capture capture(List<Mat> frames) throws InterruptedException {
+        Capture capture = new Capture();
+        try {
+            for (Mat frame : frames) {
+                capture.addFrame(frame);
+            }
+        } catch (InterruptedException e) {
+            capture.release();
+            throw e;
+        }
+        return capture;
+    }
+
+    private File userFolder(String userName) {
+        return new File(imagesFolder, userName);
+    }
+
+    private static void drawFaces(Mat frame, Rect[] faces) {
+        for (Rect rect : faces) {
+            Imgproc.rectangle(frame, new Point(rect.x, rect.y),
+                    new Point(rect.x + rect.width, rect.y + rect.height),
+                    new Scalar(0, 255, 0), 2);
+        }
+    }
+
+    private static Mat jpegRoundTrip(Mat frame) {
+        // The app saves live captures as JPEG and reads them back, so scores depend on the compression
+        MatOfByte buffer = new MatOfByte();
+        Imgcodecs.imencode(".jpg", frame, buffer);
+        Mat decoded = Imgcodecs.imdecode(buffer, Imgcodecs.IMREAD_COLOR);
+        buffer.release();
+        return decoded;
+    }
+}
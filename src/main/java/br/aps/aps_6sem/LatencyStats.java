@@ -0,0 +1,104 @@
+package br.aps.aps_6sem;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects latency samples (in nanoseconds) in a fixed-size histogram and reports simple
+ * percentiles.
+ * <p>
+ * Each power of two is split into {@code SUB_BUCKETS} linear buckets, so percentiles are within
+ * about 6% of the true value while memory stays constant however long a soak runs. Recording is
+ * lock-free and can run while another thread reads percentiles.
+ */
+public class LatencyStats {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // Linear buckets per power of two
+    private static final int MAX_MAGNITUDE = 40; // Values from 2^40 ns (about 18 minutes) share the last bucket
+    private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        total.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public int getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, count);
+    }
+
+    public double meanMillis() {
+        int count = getCount();
+        return count == 0 ? 0.0 : total.sum() / (double) count / 1_000_000;
+    }
+
+    /**
+     * Nearest-rank percentile in milliseconds, {@code percentile} between 0 and 100. The value is
+     * the upper bound of the bucket holding that rank.
+     */
+    public double percentileMillis(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0.0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get()) / 1_000_000.0;
+            }
+        }
+        return max.get() / 1_000_000.0;
+    }
+
+    public double maxMillis() {
+        return max.get() / 1_000_000.0;
+    }
+
+    /**
+     * One fixed-width line, so reports from different builds can be diffed.
+     */
+    public String format(String name) {
+        return String.format(Locale.ROOT, "%-10s n=%-6d mean=%9.3fms p50=%9.3fms p99=%9.3fms max=%9.3fms",
+                name, getCount(), meanMillis(), percentileMillis(50), percentileMillis(99), maxMillis());
+    }
+
+    static int bucketOf(long nanos) {
+        long value = Math.min(nanos, (1L << MAX_MAGNITUDE) - 1);
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value; // Small values get one bucket each
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int shift = magnitude - SUB_BUCKET_BITS;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,452 @@
+package br.aps.aps_6sem;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Load and soak harness for end-to-end login throughput.
+ * <p>
+ * Simulated camera sessions replay frames through {@link FaceVerificationService#verify}: the
+ * capture rule of {@code processLiveFaceCapture} (motion pre-stage, detection, JPEG round trip) and
+ * the comparison of {@code compareLiveImagesWithRegistration}. Concurrency is ramped (1, 2, 4, ...
+ * up to {@code --max-concurrency}), then held for a soak phase while heap and process memory are
+ * sampled. The report is written as sorted {@code key=value} lines so reports of two releases can
+ * be diffed.
+ * <p>
+ * Prefer {@code --recordings=<folder>} ({@link SessionRecorder} files): they are real, mostly static
+ * logins. Without recordings, the registration of {@code --user=<name>} (default: the first
+ * registered user) is split: its last {@code HOLDOUT_FRACTION} of images is the probe session, and
+ * verification only sees the other images, so no probe is scored against an identical copy of
+ * itself. Sessions in which no face was found are reported as {@code noface}, apart from the
+ * rejects, and failures are counted per exception type.
+ * <p>
+ * Two differences from a live login, repeated at the top of the report: the live images stay in
+ * memory instead of being written to and read back from {@code img_temp} (where the app also picks
+ * up leftovers of earlier sessions), and held-out registration images are spaced-out shots rather
+ * than a continuous, mostly static video, so the motion pre-stage skips fewer frames than it would.
+ * <p>
+ * Options: {@code --recordings --max-frames --user --cascade --images --max-concurrency
+ * --step-seconds --soak-minutes --sample-seconds --report}
+ */
+public class LoadHarness {
+
+    private static final Logger LOGGER = Logger.getLogger(LoadHarness.class.getName());
+    private static final int DEFAULT_MAX_FRAMES = 100; // Recordings are raw video; cap what is kept in memory
+    private static final double HOLDOUT_FRACTION = 0.25; // Share of a registration used as the probe session
+    private static final String IN_MEMORY_NOTE = "live images stay in memory; the app writes them to img_temp"
+            + " and reads the folder back, including leftovers of earlier sessions";
+
+    /**
+     * Frames of one simulated session, kept as raw pixels so every session allocates its own Mats
+     * like a live camera does.
+     */
+    private record Session(String userName, List<byte[]> pixels, int rows, int cols, int type) {
+
+        List<Mat> toFrames() {
+            List<Mat> frames = new ArrayList<>(pixels.size());
+            for (byte[] data : pixels) {
+                Mat frame = new Mat(rows, cols, type);
+                frame.put(0, 0, data);
+                frames.add(frame);
+            }
+            return frames;
+        }
+    }
+
+    private static class PhaseResult {
+        final LatencyStats latency = new LatencyStats();
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger noFace = new AtomicInteger(); // Rejected because no face was captured
+        final AtomicInteger errors = new AtomicInteger();
+        final Map<String, AtomicInteger> errorsByType = new ConcurrentHashMap<>();
+        long elapsedNanos;
+
+        int completed() {
+            return accepted.get() + rejected.get() + noFace.get();
+        }
+    }
+
+    private final FaceVerificationService service;
+    private final List<Session> sessions;
+    private final List<String> notes; // Written as comments at the top of the report
+    private final Map<String, String> report = new HashMap<>();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final Set<String> loggedErrorTypes = ConcurrentHashMap.newKeySet(); // Logged once with a stack trace
+
+    private LoadHarness(FaceVerificationService service, List<Session> sessions, List<String> notes) {
+        this.service = service;
+        this.sessions = sessions;
+        this.notes = notes;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        int maxConcurrency = Integer.parseInt(options.getOrDefault("max-concurrency",
+                String.valueOf(Runtime.getRuntime().availableProcessors() * 2)));
+        int stepSeconds = Integer.parseInt(options.getOrDefault("step-seconds", "30"));
+        int soakMinutes = Integer.parseInt(options.getOrDefault("soak-minutes", "0"));
+        int sampleSeconds = Integer.parseInt(options.getOrDefault("sample-seconds", "60"));
+        String reportPath = options.getOrDefault("report", "load-report.txt");
+
+        String cascadePath = options.getOrDefault("cascade", FaceMatcher.DEFAULT_CASCADE);
+        File imagesFolder = new File(options.getOrDefault("images", FaceMatcher.IMAGES_FOLDER));
+        List<String> notes = new ArrayList<>();
+        List<Session> sessions = new ArrayList<>();
+        FaceVerificationService service;
+        File trainingFolder = null;
+        try {
+            if (options.containsKey("recordings")) {
+                service = new FaceVerificationService(cascadePath, imagesFolder.getPath());
+                int maxFrames = Integer.parseInt(options.getOrDefault("max-frames", String.valueOf(DEFAULT_MAX_FRAMES)));
+                sessions.addAll(loadRecordings(service, new File(options.get("recordings")), maxFrames));
+                notes.add("source=recordings " + options.get("recordings"));
+            } else {
+                trainingFolder = Files.createTempDirectory("load-harness").toFile();
+                Session session = holdOutSession(imagesFolder, options.get("user"), trainingFolder);
+                service = new FaceVerificationService(cascadePath, trainingFolder.getPath());
+                if (session != null) {
+                    sessions.add(session);
+                    notes.add(String.format(Locale.ROOT, "source=holdout: the last %.0f%% of the registration of %s,"
+                            + " verified against the rest", HOLDOUT_FRACTION * 100, session.userName()));
+                    notes.add("probe frames are spaced-out registration shots, not a continuous mostly static login;"
+                            + " prefer --recordings");
+                }
+            }
+            notes.add(IN_MEMORY_NOTE);
+            if (sessions.isEmpty()) {
+                System.err.println("No frames to replay");
+                if (trainingFolder != null) {
+                    deleteRecursively(trainingFolder); // System.exit skips the finally block
+                }
+                System.exit(1);
+            }
+            notes.forEach(note -> System.out.println("Note: " + note));
+
+            LoadHarness harness = new LoadHarness(service, sessions, notes);
+            harness.run(maxConcurrency, stepSeconds, soakMinutes, sampleSeconds);
+            harness.writeReport(reportPath);
+        } finally {
+            if (trainingFolder != null) {
+                deleteRecursively(trainingFolder);
+            }
+        }
+    }
+
+    private void run(int maxConcurrency, int stepSeconds, int soakMinutes, int sampleSeconds)
+            throws InterruptedException {
+        put("env.java.version", System.getProperty("java.version"));
+        put("env.cpus", Runtime.getRuntime().availableProcessors());
+        put("env.sessions", sessions.size());
+        put("env.frames.per.session", sessions.get(0).pixels().size());
+        System.gc(); // Settle the heap so start and end are comparable
+        recordMemory("memory.start");
+        double startRss = residentSetMegabytes();
+
+        // Ramp: double the concurrency each step
+        List<Integer> steps = new ArrayList<>();
+        for (int concurrency = 1; concurrency < maxConcurrency; concurrency *= 2) {
+            steps.add(concurrency);
+        }
+        steps.add(maxConcurrency);
+
+        for (int concurrency : steps) {
+            String prefix = String.format(Locale.ROOT, "ramp.c%03d", concurrency);
+            PhaseResult result = runPhase(concurrency, TimeUnit.SECONDS.toNanos(stepSeconds), 0, null);
+            recordPhase(prefix, result);
+            recordMemory(prefix + ".memory");
+            System.out.println(prefix + " " + summary(result, result.elapsedNanos));
+        }
+
+        if (soakMinutes > 0) {
+            PhaseResult result = runPhase(maxConcurrency, TimeUnit.MINUTES.toNanos(soakMinutes),
+                    TimeUnit.SECONDS.toNanos(sampleSeconds), "soak.sample");
+            recordPhase("soak", result);
+            System.out.println("soak " + summary(result, result.elapsedNanos));
+        }
+        System.gc();
+        recordMemory("memory.end");
+        // Steady growth here over a long soak points at native (Mat) leaks
+        put("memory.rss.growth.mb", residentSetMegabytes() - startRss);
+    }
+
+    /**
+     * Runs {@code concurrency} simulated cameras back to back for {@code durationNanos}.
+     */
+    private PhaseResult runPhase(int concurrency, long durationNanos, long sampleNanos, String samplePrefix)
+            throws InterruptedException {
+        PhaseResult result = new PhaseResult();
+        AtomicLong nextSession = new AtomicLong();
+        long start = System.nanoTime();
+        long deadline = start + durationNanos;
+
+        ExecutorService cameras = Executors.newFixedThreadPool(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            cameras.submit(() -> {
+                while (System.nanoTime() < deadline) {
+                    Session session = sessions.get((int) (nextSession.getAndIncrement() % sessions.size()));
+                    runSession(session, result);
+                }
+            });
+        }
+        cameras.shutdown();
+
+        // Sample memory while the phase runs (soak only)
+        int sample = 0;
+        while (!cameras.awaitTermination(sampleNanos > 0 ? sampleNanos : durationNanos, TimeUnit.NANOSECONDS)) {
+            if (samplePrefix != null) {
+                recordMemory(String.format(Locale.ROOT, "%s.%04d", samplePrefix, sample++));
+                System.out.println(samplePrefix + " " + sample + " " + summary(result, System.nanoTime() - start));
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private void runSession(Session session, PhaseResult result) {
+        long start = System.nanoTime();
+        List<Mat> frames = session.toFrames();
+        try {
+            FaceVerificationService.Result verification = service.verify(session.userName(), frames);
+            result.latency.record(System.nanoTime() - start);
+            if (verification.liveImages() == 0) {
+                result.noFace.incrementAndGet();
+            } else {
+                (verification.match() ? result.accepted : result.rejected).incrementAndGet();
+            }
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            String type = e.getClass().getName();
+            result.errors.incrementAndGet();
+            result.errorsByType.computeIfAbsent(type, key -> new AtomicInteger()).incrementAndGet();
+            if (loggedErrorTypes.add(type)) {
+                LOGGER.log(Level.SEVERE, "Session of " + session.userName() + " failed (further " + type
+                        + " errors are only counted)", e);
+            }
+        } finally {
+            frames.forEach(Mat::release);
+        }
+    }
+
+    private void recordPhase(String prefix, PhaseResult result) {
+        int completed = result.completed();
+        put(prefix + ".sessions", completed);
+        put(prefix + ".accepted", result.accepted.get());
+        put(prefix + ".rejected", result.rejected.get());
+        put(prefix + ".noface", result.noFace.get());
+        put(prefix + ".errors", result.errors.get());
+        result.errorsByType.forEach((type, count) -> put(prefix + ".errors." + type, count.get()));
+        put(prefix + ".throughput.per.second", completed / (result.elapsedNanos / 1e9));
+        put(prefix + ".latency.p50.ms", result.latency.percentileMillis(50));
+        put(prefix + ".latency.p99.ms", result.latency.percentileMillis(99));
+        put(prefix + ".latency.max.ms", result.latency.maxMillis());
+    }
+
+    private void recordMemory(String prefix) {
+        put(prefix + ".heap.used.mb", memory.getHeapMemoryUsage().getUsed() / (1024.0 * 1024));
+        // OpenCV allocates outside the Java heap, so native growth only shows in the process size
+        put(prefix + ".rss.mb", residentSetMegabytes());
+    }
+
+    private static String summary(PhaseResult result, long elapsedNanos) {
+        int completed = result.completed();
+        return String.format(Locale.ROOT, "sessions=%d noface=%d errors=%d%s %.2f/s p50=%.1fms p99=%.1fms",
+                completed, result.noFace.get(), result.errors.get(),
+                result.errorsByType.isEmpty() ? "" : new TreeMap<>(result.errorsByType).toString(),
+                completed / (elapsedNanos / 1e9),
+                result.latency.percentileMillis(50), result.latency.percentileMillis(99));
+    }
+
+    /**
+     * Resident set size from {@code /proc/self/status}, or -1 where it is not available.
+     */
+    private static double residentSetMegabytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) / 1024.0;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux; fall through
+        }
+        return -1;
+    }
+
+    private void put(String key, Object value) {
+        report.put(key, value instanceof Double d ? String.format(Locale.ROOT, "%.3f", d) : String.valueOf(value));
+    }
+
+    private void writeReport(String path) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(path)))) {
+            notes.forEach(note -> out.println("# " + note));
+            report.keySet().stream().sorted().forEach(key -> out.println(key + "=" + report.get(key)));
+        }
+        System.out.println("Report written to " + new File(path).getAbsolutePath());
+    }
+
+    private static List<Session> loadRecordings(FaceVerificationService service, File folder, int maxFrames)
+            throws IOException {
+        List<Session> sessions = new ArrayList<>();
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(SessionRecorder.EXTENSION));
+        if (files != null) {
+            for (File file : files) {
+                Session session = readRecording(file, maxFrames);
+                if (session != null) {
+                    sessions.add(session);
+                }
+            }
+        }
+        sessions.stream().map(Session::userName).distinct()
+                .filter(userName -> !service.isRegistered(userName))
+                .forEach(userName -> System.err.println("Warning: " + userName
+                        + " is not registered; its sessions will be rejected"));
+        return sessions;
+    }
+
+    /**
+     * Splits the registration of {@code userName} (the first registered user when {@code null}):
+     * the last {@code HOLDOUT_FRACTION} of its images, in capture order, become the probe session
+     * and the others are copied to {@code trainingFolder}, which the harness verifies against.
+     */
+    private static Session holdOutSession(File imagesFolder, String userName, File trainingFolder)
+            throws IOException {
+        if (userName == null) {
+            File[] users = imagesFolder.listFiles(File::isDirectory);
+            if (users == null || users.length == 0) {
+                System.err.println("No registered users in " + imagesFolder + "; register one or pass --recordings");
+                return null;
+            }
+            Arrays.sort(users, Comparator.comparing(File::getName));
+            userName = users[0].getName();
+        }
+
+        File[] images = new File(imagesFolder, userName).listFiles((dir, name) -> name.endsWith(".jpg"));
+        if (images == null || images.length < 2) {
+            System.err.println("Need at least two registered images of " + userName + " to hold some back");
+            return null;
+        }
+        Arrays.sort(images, Comparator.comparingInt(LoadHarness::captureIndex).thenComparing(File::getName));
+        int probes = Math.max(1, (int) Math.round(images.length * HOLDOUT_FRACTION));
+        int training = images.length - probes;
+
+        File userFolder = new File(trainingFolder, userName);
+        Files.createDirectories(userFolder.toPath());
+        for (int i = 0; i < training; i++) {
+            Files.copy(images[i].toPath(), new File(userFolder, images[i].getName()).toPath());
+        }
+
+        List<Mat> frames = new ArrayList<>();
+        for (int i = training; i < images.length; i++) {
+            Mat frame = Imgcodecs.imread(images[i].getAbsolutePath());
+            if (!frame.empty()) {
+                frames.add(frame);
+            }
+        }
+        if (frames.isEmpty()) {
+            return null;
+        }
+        System.out.println("Probing " + userName + " with " + frames.size() + " held-out images against "
+                + training + " registered images");
+        Session session = toSession(userName, frames);
+        frames.forEach(Mat::release);
+        return session;
+    }
+
+    /**
+     * Capture counter of a registration image ({@code <name>_<n>.jpg}), or -1 when there is none.
+     */
+    private static int captureIndex(File image) {
+        String name = image.getName();
+        int separator = name.lastIndexOf('_');
+        try {
+            return Integer.parseInt(name.substring(separator + 1, name.length() - ".jpg".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteRecursively(File folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder.toPath())) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static Session readRecording(File file, int maxFrames) throws IOException {
+        List<Mat> frames = new ArrayList<>();
+        try (SessionReader reader = new SessionReader(file)) {
+            SessionReader.Event event;
+            while (frames.size() < maxFrames && (event = reader.next()) != null) {
+                if (event.tag == SessionRecorder.TAG_FRAME) {
+                    frames.add(event.frame);
+                }
+            }
+            if (frames.isEmpty()) {
+                return null;
+            }
+            Session session = toSession(reader.getUserName(), frames);
+            frames.forEach(Mat::release);
+            return session;
+        }
+    }
+
+    private static Session toSession(String userName, List<Mat> frames) {
+        // All frames of a session must have the first frame's size; others are skipped
+        Mat first = frames.get(0);
+        List<byte[]> pixels = new ArrayList<>();
+        for (Mat frame : frames) {
+            if (frame.rows() == first.rows() && frame.cols() == first.cols() && frame.type() == first.type()) {
+                byte[] data = new byte[(int) (frame.total() * frame.elemSize())];
+                frame.get(0, 0, data);
+                pixels.add(data);
+            }
+        }
+        return new Session(userName, pixels, first.rows(), first.cols(), first.type());
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --option=value, got: " + arg);
+            }
+            int separator = arg.indexOf('=');
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+}
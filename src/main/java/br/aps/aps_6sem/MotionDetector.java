@@ -0,0 +1,167 @@
+package br.aps.aps_6sem;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cheap motion pre-stage for the Haar cascade.
+ * <p>
+ * Each frame is converted to grayscale, downsampled and compared against a running-average
+ * background. Only when enough pixels changed does the caller need to run
+ * {@code detectMultiScale}, and only inside the returned region.
+ * <p>
+ * {@link #detectFaces} keeps the faces found so far: faces outside the motion region are carried
+ * over (a still user is not dropped because someone walks past behind them), and every
+ * {@value #FULL_DETECTION_INTERVAL} frames the whole frame is scanned again.
+ */
+public class MotionDetector {
+
+    private static final double DOWNSAMPLE_FACTOR = 0.25; // Work on a quarter of the resolution
+    private static final double BACKGROUND_LEARNING_RATE = 0.05; // Weight of the new frame in the background
+    private static final double PIXEL_DIFF_THRESHOLD = 25; // Gray-level difference that counts as change
+    private static final double MOTION_THRESHOLD = 0.01; // 1% of the pixels must change to trigger detection
+    private static final int REGION_MARGIN = 40; // Extra pixels around the changed region (full resolution)
+    static final int FULL_DETECTION_INTERVAL = 30; // Full-frame detection at least once every 30 frames
+
+    private final Mat small = new Mat();
+    private final Mat gray = new Mat();
+    private final Mat background = new Mat();
+    private final Mat backgroundU8 = new Mat();
+    private final Mat diff = new Mat();
+    private boolean hasBackground = false;
+
+    private long totalFrames = 0;
+    private long skippedFrames = 0;
+    private long framesSinceFullDetection = 0;
+    private Rect[] faces = new Rect[0];
+
+    /**
+     * Feeds a frame to the background model.
+     *
+     * @return the region of {@code frame} where motion was found, or {@code null} when the frame
+     * is static and detection can be skipped
+     */
+    public Rect detectMotion(Mat frame) {
+        Imgproc.resize(frame, small, new Size(), DOWNSAMPLE_FACTOR, DOWNSAMPLE_FACTOR, Imgproc.INTER_AREA);
+        if (small.channels() > 1) {
+            Imgproc.cvtColor(small, gray, Imgproc.COLOR_BGR2GRAY);
+        } else {
+            small.copyTo(gray);
+        }
+
+        if (!hasBackground) {
+            // First frame: nothing to compare against, so the whole frame counts as changed
+            gray.convertTo(background, CvType.CV_32F);
+            hasBackground = true;
+            return new Rect(0, 0, frame.cols(), frame.rows());
+        }
+
+        background.convertTo(backgroundU8, CvType.CV_8U);
+        Core.absdiff(gray, backgroundU8, diff);
+        Imgproc.threshold(diff, diff, PIXEL_DIFF_THRESHOLD, 255, Imgproc.THRESH_BINARY);
+        Imgproc.accumulateWeighted(gray, background, BACKGROUND_LEARNING_RATE);
+
+        int changedPixels = Core.countNonZero(diff);
+        if ((double) changedPixels / diff.total() < MOTION_THRESHOLD) {
+            return null;
+        }
+
+        // Scale the bounding box of the changed pixels back to the full-resolution frame
+        Mat points = new Mat();
+        Core.findNonZero(diff, points);
+        Rect changed = Imgproc.boundingRect(points);
+        points.release();
+
+        int x = Math.max(0, (int) (changed.x / DOWNSAMPLE_FACTOR) - REGION_MARGIN);
+        int y = Math.max(0, (int) (changed.y / DOWNSAMPLE_FACTOR) - REGION_MARGIN);
+        int right = Math.min(frame.cols(), (int) ((changed.x + changed.width) / DOWNSAMPLE_FACTOR) + REGION_MARGIN);
+        int bottom = Math.min(frame.rows(), (int) ((changed.y + changed.height) / DOWNSAMPLE_FACTOR) + REGION_MARGIN);
+        return new Rect(x, y, right - x, bottom - y);
+    }
+
+    /**
+     * Runs the cascade only where motion was found and returns the faces currently in the frame:
+     * detections inside the motion region replace the previous ones there, previous detections
+     * outside it are kept. Static frames return the previous faces without running the cascade.
+     */
+    public Rect[] detectFaces(CascadeClassifier faceDetector, Mat frame) {
+        totalFrames++;
+        Rect region = detectMotion(frame);
+        Rect fullFrame = new Rect(0, 0, frame.cols(), frame.rows());
+        if (++framesSinceFullDetection >= FULL_DETECTION_INTERVAL) {
+            region = fullFrame;
+        }
+        if (region == null) {
+            skippedFrames++;
+            return faces;
+        }
+        if (region.x == 0 && region.y == 0 && region.width == frame.cols() && region.height == frame.rows()) {
+            framesSinceFullDetection = 0;
+        }
+
+        // Previous faces touching the region are re-detected, so grow the region to contain them whole
+        List<Rect> kept = new ArrayList<>();
+        for (Rect face : faces) {
+            if (intersects(face, region)) {
+                region = union(region, face, fullFrame);
+            }
+        }
+        for (Rect face : faces) {
+            if (!intersects(face, region)) {
+                kept.add(face);
+            }
+        }
+
+        Mat roi = frame.submat(region);
+        MatOfRect faceDetections = new MatOfRect();
+        faceDetector.detectMultiScale(roi, faceDetections);
+        Rect[] detected = faceDetections.toArray();
+        faceDetections.release();
+        roi.release();
+
+        // Detections are relative to the region; move them back to frame coordinates
+        for (Rect face : detected) {
+            face.x += region.x;
+            face.y += region.y;
+            kept.add(face);
+        }
+        faces = kept.toArray(new Rect[0]);
+        return faces;
+    }
+
+    private static boolean intersects(Rect a, Rect b) {
+        return a.x < b.x + b.width && b.x < a.x + a.width && a.y < b.y + b.height && b.y < a.y + a.height;
+    }
+
+    private static Rect union(Rect a, Rect b, Rect bounds) {
+        int x = Math.max(bounds.x, Math.min(a.x, b.x));
+        int y = Math.max(bounds.y, Math.min(a.y, b.y));
+        int right = Math.min(bounds.x + bounds.width, Math.max(a.x + a.width, b.x + b.width));
+        int bottom = Math.min(bounds.y + bounds.height, Math.max(a.y + a.height, b.y + b.height));
+        return new Rect(x, y, right - x, bottom - y);
+    }
+
+    public long getTotalFrames() {
+        return totalFrames;
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    public double getSkippedFraction() {
+        return totalFrames == 0 ? 0.0 : (double) skippedFrames / totalFrames;
+    }
+
+    public void release() {
+        small.release();
+        gray.release();
+        background.release();
+        backgroundU8.release();
+        diff.release();
+    }
+}
@@ -0,0 +1,152 @@
+package br.aps.aps_6sem;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads back a container written by {@link SessionRecorder}, one event at a time.
+ */
+public class SessionReader implements AutoCloseable {
+
+    /**
+     * A single recorded event. Only the fields matching {@link #tag} are set.
+     */
+    public static class Event {
+        public byte tag;
+        public long nanos;
+        public Mat frame;
+        public Rect[] faces;
+        public double score;
+        public boolean success;
+        public String name;
+        public byte[] data;
+    }
+
+    private static final int MAX_FRAME_SIDE = 8192; // Larger frames can only come from a corrupt record
+    private static final int MAX_FACES = 10_000;
+    private static final int MAX_LIVE_IMAGE_BYTES = 64 * 1024 * 1024;
+
+    private final DataInputStream in;
+    private final String userName;
+    private final long startMillis;
+    private byte[] frameBuffer = new byte[0];
+
+    public SessionReader(File file) throws IOException {
+        in = new DataInputStream(new InflaterInputStream(
+                new BufferedInputStream(new FileInputStream(file)), new Inflater(), 64 * 1024));
+        if (in.readInt() != SessionRecorder.MAGIC) {
+            in.close();
+            throw new IOException("Not a session recording: " + file);
+        }
+        int version = in.readInt();
+        if (version < 1 || version > SessionRecorder.VERSION) {
+            in.close();
+            throw new IOException("Unsupported session recording version " + version + ": " + file);
+        }
+        userName = in.readUTF();
+        startMillis = in.readLong();
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Returns the next event, or {@code null} at the end of the recording. Frames are returned as
+     * new Mats owned by the caller.
+     */
+    public Event next() throws IOException {
+        try {
+            return readEvent();
+        } catch (EOFException e) {
+            // Truncated recording (e.g. the app was killed), possibly in the middle of a record:
+            // the partial event is discarded and the recording ends here
+            return null;
+        }
+    }
+
+    private Event readEvent() throws IOException {
+        byte tag = in.readByte();
+        if (tag == SessionRecorder.TAG_END) {
+            return null;
+        }
+
+        Event event = new Event();
+        event.tag = tag;
+        event.nanos = in.readLong();
+        switch (tag) {
+            case SessionRecorder.TAG_FRAME -> {
+                int rows = in.readInt();
+                int cols = in.readInt();
+                int type = in.readInt();
+                int length = in.readInt();
+                checkFrame(rows, cols, type, length);
+                if (frameBuffer.length != length) {
+                    frameBuffer = new byte[length];
+                }
+                in.readFully(frameBuffer, 0, length);
+                event.frame = new Mat(rows, cols, type);
+                event.frame.put(0, 0, frameBuffer);
+            }
+            case SessionRecorder.TAG_DETECTIONS -> {
+                int count = in.readInt();
+                if (count < 0 || count > MAX_FACES) {
+                    throw new IOException("Corrupt detections record: " + count + " faces");
+                }
+                event.faces = new Rect[count];
+                for (int i = 0; i < count; i++) {
+                    event.faces[i] = new Rect(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                }
+            }
+            case SessionRecorder.TAG_SCORE -> event.score = in.readDouble();
+            case SessionRecorder.TAG_DECISION -> event.success = in.readBoolean();
+            case SessionRecorder.TAG_LIVE_IMAGE -> {
+                event.name = in.readUTF();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_LIVE_IMAGE_BYTES) {
+                    throw new IOException("Corrupt live image record: length " + length);
+                }
+                event.data = new byte[length];
+                in.readFully(event.data);
+            }
+            default -> throw new IOException("Unknown record tag " + tag);
+        }
+        return event;
+    }
+
+    /**
+     * Rejects a frame header whose length does not match its size and type, before anything is allocated.
+     */
+    private static void checkFrame(int rows, int cols, int type, int length) throws IOException {
+        long expected = -1;
+        if (rows > 0 && cols > 0 && rows <= MAX_FRAME_SIDE && cols <= MAX_FRAME_SIDE && type >= 0) {
+            try {
+                expected = (long) rows * cols * CvType.ELEM_SIZE(type);
+            } catch (UnsupportedOperationException e) {
+                // Unknown depth; rejected below
+            }
+        }
+        if (length != expected) {
+            throw new IOException("Corrupt frame record: " + rows + "x" + cols + " type " + type + " length " + length);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
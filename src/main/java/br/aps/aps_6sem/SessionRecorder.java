@@ -0,0 +1,250 @@
+package br.aps.aps_6sem;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a login session (raw frames, detections, score and decision) to a sequential,
+ * deflate-compressed container so it can be replayed later with {@link SessionReplay}.
+ * <p>
+ * Compression and disk I/O run on a {@link BackgroundWriter}; the capture thread only copies the
+ * frame pixels, so recording changes the timing of the loop it records as little as possible.
+ * If the writer falls behind, frames (and their detections) are dropped and counted rather than
+ * slowing the loop; the other records wait for room in the buffer.
+ * <p>
+ * Recording is opt-in: set {@code -Daps.recordDir=<folder>} to enable it.
+ */
+public class SessionRecorder implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(SessionRecorder.class.getName());
+
+    static final int MAGIC = 0x41505352; // "APSR"
+    static final int VERSION = 2; // Version 2 added TAG_LIVE_IMAGE
+    static final String EXTENSION = ".apsrec";
+
+    static final byte TAG_END = 0;
+    static final byte TAG_FRAME = 1;
+    static final byte TAG_DETECTIONS = 2;
+    static final byte TAG_SCORE = 3;
+    static final byte TAG_DECISION = 4;
+    static final byte TAG_LIVE_IMAGE = 5;
+
+    private static final int BUFFER_CAPACITY = 64; // Queued records, i.e. about two seconds of frames
+    private static final long RETRY_PARK_NANOS = 100_000; // Retry interval for records that must not be dropped
+
+    /**
+     * One record, written on the writer thread.
+     */
+    private interface Record {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Owns the stream on the writer thread.
+     */
+    private static class RecordSink implements BackgroundWriter.Sink<Record> {
+
+        private final DataOutputStream out;
+        private boolean failed = false;
+
+        RecordSink(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(Record record) {
+            if (failed) {
+                return;
+            }
+            try {
+                record.writeTo(out);
+            } catch (IOException e) {
+                // Log once; a broken recording must not interrupt the login itself
+                failed = true;
+                LOGGER.log(Level.SEVERE, "Error writing session recording", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error closing session recording", e);
+            }
+        }
+    }
+
+    private final BackgroundWriter<Record> writer;
+    private final long startNanos;
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private boolean frameDropped = false; // Capture thread only: skip the detections of a dropped frame
+
+    public SessionRecorder(File file, String userName) throws IOException {
+        DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)), new Deflater(Deflater.BEST_SPEED), 64 * 1024));
+        startNanos = System.nanoTime();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(userName);
+        out.writeLong(System.currentTimeMillis());
+
+        writer = new BackgroundWriter<>("session-recorder", BUFFER_CAPACITY, new RecordSink(out));
+        writer.start();
+    }
+
+    /**
+     * Opens a recorder for {@code userName} when {@code aps.recordDir} is set, otherwise returns {@code null}.
+     */
+    public static SessionRecorder openIfEnabled(String userName) {
+        String recordDir = System.getProperty("aps.recordDir");
+        if (recordDir == null || recordDir.isEmpty()) {
+            return null;
+        }
+
+        File folder = new File(recordDir);
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+        File file = new File(folder, safeFileName(userName) + "_" + System.currentTimeMillis() + EXTENSION);
+        try {
+            LOGGER.info("Recording login session to " + file.getAbsolutePath());
+            return new SessionRecorder(file, userName);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to open session recording", e);
+            return null;
+        }
+    }
+
+    /**
+     * Turns the login text into something usable as a file name on any OS: path separators, dots
+     * and other reserved characters become {@code _}, so the file always stays inside the folder.
+     */
+    static String safeFileName(String userName) {
+        String safe = userName.replaceAll("[^\\p{L}\\p{N} _-]", "_").trim();
+        if (safe.length() > 64) {
+            safe = safe.substring(0, 64);
+        }
+        return safe.isEmpty() ? "user" : safe;
+    }
+
+    /**
+     * Copies the pixels of {@code frame}; compression happens on the writer thread.
+     */
+    public void recordFrame(Mat frame) {
+        long nanos = elapsedNanos();
+        int rows = frame.rows();
+        int cols = frame.cols();
+        int type = frame.type();
+        byte[] pixels = new byte[(int) (frame.total() * frame.elemSize())];
+        // Camera frames are continuous 8-bit Mats, so the pixels can be copied in one call
+        frame.get(0, 0, pixels);
+
+        frameDropped = !writer.offer(out -> {
+            out.writeByte(TAG_FRAME);
+            out.writeLong(nanos);
+            out.writeInt(rows);
+            out.writeInt(cols);
+            out.writeInt(type);
+            out.writeInt(pixels.length);
+            out.write(pixels);
+        });
+        if (frameDropped) {
+            droppedFrames.incrementAndGet();
+        }
+    }
+
+    public void recordDetections(Rect[] faces) {
+        if (frameDropped) {
+            frameDropped = false;
+            return;
+        }
+        long nanos = elapsedNanos();
+        Rect[] copy = faces.clone();
+        enqueue(out -> {
+            out.writeByte(TAG_DETECTIONS);
+            out.writeLong(nanos);
+            out.writeInt(copy.length);
+            for (Rect face : copy) {
+                out.writeInt(face.x);
+                out.writeInt(face.y);
+                out.writeInt(face.width);
+                out.writeInt(face.height);
+            }
+        });
+    }
+
+    /**
+     * Records an image exactly as it was passed to verification (the JPEG bytes of an
+     * {@code img_temp} file), so a replay can score the same input.
+     */
+    public void recordLiveImage(String name, byte[] jpeg) {
+        long nanos = elapsedNanos();
+        enqueue(out -> {
+            out.writeByte(TAG_LIVE_IMAGE);
+            out.writeLong(nanos);
+            out.writeUTF(name);
+            out.writeInt(jpeg.length);
+            out.write(jpeg);
+        });
+    }
+
+    public void recordScore(double score) {
+        long nanos = elapsedNanos();
+        enqueue(out -> {
+            out.writeByte(TAG_SCORE);
+            out.writeLong(nanos);
+            out.writeDouble(score);
+        });
+    }
+
+    public void recordDecision(boolean success) {
+        long nanos = elapsedNanos();
+        enqueue(out -> {
+            out.writeByte(TAG_DECISION);
+            out.writeLong(nanos);
+            out.writeBoolean(success);
+        });
+    }
+
+    /**
+     * Writes the end marker and waits until everything queued is on disk.
+     */
+    @Override
+    public void close() {
+        enqueue(out -> out.writeByte(TAG_END));
+        writer.close();
+        if (droppedFrames.get() > 0) {
+            LOGGER.warning("Session recording dropped " + droppedFrames.get() + " frames (writer too slow)");
+        }
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    private void enqueue(Record record) {
+        while (!writer.offer(record)) {
+            if (!writer.isRunning()) {
+                return;
+            }
+            LockSupport.parkNanos(RETRY_PARK_NANOS);
+        }
+    }
+
+    private long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+}
@@ -0,0 +1,133 @@
+package br.aps.aps_6sem;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless replay of a recorded login session. Drives the same detection and verification path
+ * as the app through {@link FaceVerificationService} and prints per-stage timings, so builds can be compared.
+ * <p>
+ * Usage: {@code SessionReplay <recording.apsrec> [cascade.xml] [imagesFolder]}
+ */
+public class SessionReplay {
+
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: SessionReplay <recording" + SessionRecorder.EXTENSION + "> [cascade.xml] [imagesFolder]");
+            System.exit(2);
+        }
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        File recording = new File(args[0]);
+        String cascadePath = args.length > 1 ? args[1] : FaceMatcher.DEFAULT_CASCADE;
+        String imagesFolder = args.length > 2 ? args[2] : FaceMatcher.IMAGES_FOLDER;
+
+        FaceVerificationService service;
+        try {
+            service = new FaceVerificationService(cascadePath, imagesFolder, 1);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        LatencyStats readStats = new LatencyStats();
+        LatencyStats captureStats = new LatencyStats();
+        LatencyStats loadStats = new LatencyStats();
+        LatencyStats compareStats = new LatencyStats(); // Recorded verification input
+        LatencyStats captureCompareStats = new LatencyStats(); // Live images of the replayed capture path
+
+        FaceVerificationService.Capture capture = service.newCapture();
+        Rect[] faces = new Rect[0];
+        int detectionMismatches = 0;
+        Double recordedScore = null;
+        Boolean recordedDecision = null;
+        List<Mat> recordedLiveImages = new ArrayList<>();
+        String userName;
+
+        try (SessionReader reader = new SessionReader(recording)) {
+            userName = reader.getUserName();
+            while (true) {
+                long start = System.nanoTime();
+                SessionReader.Event event = reader.next();
+                if (event == null) {
+                    break;
+                }
+
+                switch (event.tag) {
+                    case SessionRecorder.TAG_FRAME -> {
+                        readStats.record(System.nanoTime() - start);
+
+                        start = System.nanoTime();
+                        faces = capture.addFrame(event.frame);
+                        captureStats.record(System.nanoTime() - start);
+                        event.frame.release();
+                    }
+                    case SessionRecorder.TAG_DETECTIONS -> {
+                        if (event.faces.length != faces.length) {
+                            detectionMismatches++;
+                        }
+                    }
+                    case SessionRecorder.TAG_SCORE -> recordedScore = event.score;
+                    case SessionRecorder.TAG_DECISION -> recordedDecision = event.success;
+                    case SessionRecorder.TAG_LIVE_IMAGE -> {
+                        MatOfByte buffer = new MatOfByte(event.data);
+                        recordedLiveImages.add(Imgcodecs.imdecode(buffer, Imgcodecs.IMREAD_COLOR));
+                        buffer.release();
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Mat> registeredImages = service.loadRegisteredImages(userName);
+        loadStats.record(System.nanoTime() - start);
+
+        // The recorded verification input reproduces the recorded score; the capture path may differ
+        // from it (the app also scores leftovers in 'img_temp'), so it is reported separately
+        FaceVerificationService.Result recordedInputResult = null;
+        if (!recordedLiveImages.isEmpty()) {
+            start = System.nanoTime();
+            recordedInputResult = service.compare(userName, recordedLiveImages, registeredImages);
+            compareStats.record(System.nanoTime() - start);
+        }
+
+        List<Mat> liveImages = capture.getLiveImages();
+        start = System.nanoTime();
+        FaceVerificationService.Result result = service.compare(userName, liveImages, registeredImages);
+        captureCompareStats.record(System.nanoTime() - start);
+
+        System.out.println("Recording:  " + recording.getName() + " (user " + userName + ")");
+        System.out.println("Frames:     " + capture.getFrameCount() + ", skipped by motion pre-stage: "
+                + capture.getMotionDetector().getSkippedFrames()
+                + ", detection mismatches: " + detectionMismatches);
+        System.out.println("Live images: recorded=" + recordedLiveImages.size() + " capture=" + liveImages.size()
+                + ", registered images: " + registeredImages.size());
+        System.out.println("Score:      recorded=" + recordedScore
+                + " replay(recorded input)=" + (recordedInputResult == null ? "n/a" : recordedInputResult.score())
+                + " replay(capture path)=" + result.score());
+        System.out.println("Decision:   recorded=" + recordedDecision
+                + " replay(recorded input)=" + (recordedInputResult == null ? "n/a" : recordedInputResult.match())
+                + " replay(capture path)=" + result.match());
+        System.out.println(readStats.format("read"));
+        System.out.println(captureStats.format("capture"));
+        System.out.println(loadStats.format("load"));
+        System.out.println(compareStats.format("compare"));
+        System.out.println(captureCompareStats.format("cmp-replay"));
+
+        capture.release();
+        registeredImages.forEach(Mat::release);
+        recordedLiveImages.forEach(Mat::release);
+    }
+}
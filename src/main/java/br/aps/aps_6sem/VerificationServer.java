@@ -0,0 +1,520 @@
+package br.aps.aps_6sem;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local HTTP front end for {@link FaceVerificationService}, so thin-client kiosks can share one
+ * compute host.
+ * <ul>
+ *     <li>{@code POST /verify?user=<name>} verifies the frames against one user</li>
+ *     <li>{@code POST /identify} finds the best matching registered user</li>
+ * </ul>
+ * The request body is a batch of at most {@link FaceMatcher#MAX_LOGIN_CAPTURES} JPEG frames, each
+ * prefixed by its length as a 4-byte big-endian int. The frames go through the same capture rule as
+ * the app: of those frames, only the ones in which a face is found are scored. The response is a
+ * JSON object: {@code {"user":"...","match":true,"score":0.42,"liveImages":5}}, where
+ * {@code liveImages} is the number of frames that were scored; when it is 0 no face was found and
+ * the request is rejected with score 0.
+ * <p>
+ * {@code user} must be one of the registered users; any other name gets a 404.
+ * <p>
+ * An optional {@code door=<id>} query parameter names the kiosk in the audit log (default: the
+ * client address).
+ * <p>
+ * Requests are handled on virtual threads. Requests that arrive together are processed as one
+ * batch, so the registered images of each user are read from disk once per batch instead of once
+ * per request. Identification goes through the users one at a time, scoring every identify request
+ * of the batch against a user before releasing that user's images, so memory does not grow with
+ * the number of registered users.
+ * <p>
+ * Usage: {@code VerificationServer [port] [cascade.xml] [imagesFolder] [bindAddress]}. The server
+ * only listens on the loopback interface unless a bind address (e.g. {@code 0.0.0.0}) is given.
+ */
+public class VerificationServer {
+
+    private static final Logger LOGGER = Logger.getLogger(VerificationServer.class.getName());
+    private static final int DEFAULT_PORT = 8080;
+    private static final long BATCH_WINDOW_MS = 20; // How long to wait for more requests to join a batch
+    private static final int MAX_BATCH_SIZE = 32;
+    private static final int MAX_FRAME_BYTES = 8 * 1024 * 1024; // Reject absurd frame lengths
+    private static final long MAX_BODY_BYTES = 16L * 1024 * 1024; // Limit for all frames of one request
+    private static final int MAX_FRAMES = FaceMatcher.MAX_LOGIN_CAPTURES; // Later frames would never be scored
+    private static final int MAX_IN_FLIGHT = 4 * MAX_BATCH_SIZE; // Requests holding decoded frames at once
+
+    private static class PendingRequest {
+        final String userName; // null for identification
+        final List<Mat> frames;
+        final CompletableFuture<FaceVerificationService.Result> result = new CompletableFuture<>();
+        volatile long captureNanos; // Stage latencies for the audit log
+        volatile long verifyNanos;
+
+        PendingRequest(String userName, List<Mat> frames) {
+            this.userName = userName;
+            this.frames = frames;
+        }
+    }
+
+    private final FaceVerificationService service;
+    private final AuditLog audit = AuditLog.getDefault();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final BlockingQueue<PendingRequest> pending = new LinkedBlockingQueue<>();
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final Thread dispatcher;
+    private volatile boolean isRunning = false;
+
+    /**
+     * Server listening on {@code port} of the loopback interface only.
+     */
+    public VerificationServer(FaceVerificationService service, int port) throws IOException {
+        this(service, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public VerificationServer(FaceVerificationService service, InetSocketAddress address) throws IOException {
+        this.service = service;
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/verify", exchange -> handle(exchange, true));
+        server.createContext("/identify", exchange -> handle(exchange, false));
+        dispatcher = Thread.ofPlatform().name("verification-batcher").daemon().unstarted(this::dispatchLoop);
+    }
+
+    public void start() {
+        isRunning = true;
+        dispatcher.start();
+        server.start();
+        LOGGER.info("Verification server listening on " + server.getAddress());
+    }
+
+    /**
+     * Stops accepting requests, fails the ones still waiting for a batch and waits for the batches
+     * already running, which release their own frames.
+     */
+    public void stop() {
+        isRunning = false;
+        server.stop(1);
+        dispatcher.interrupt();
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingRequest request;
+        while ((request = pending.poll()) != null) {
+            fail(request, new InterruptedException("server stopping"));
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.warning("Verification batches still running after stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Verifies or identifies a batch of frames, waiting for the batch it joins to be processed.
+     * The frames are owned (and released) by the server.
+     */
+    public FaceVerificationService.Result submit(String userName, List<Mat> frames)
+            throws InterruptedException, ExecutionException {
+        return submit(userName, frames, "local");
+    }
+
+    private FaceVerificationService.Result submit(String userName, List<Mat> frames, String door)
+            throws InterruptedException, ExecutionException {
+        long start = System.nanoTime();
+        PendingRequest request = new PendingRequest(userName, frames);
+        if (!isRunning) {
+            fail(request, new InterruptedException("server stopping"));
+        } else {
+            pending.put(request);
+        }
+        try {
+            FaceVerificationService.Result result = request.result.get();
+            audit.record(userName != null ? AuditLog.EventType.VERIFY : AuditLog.EventType.IDENTIFY,
+                    result.userName(), door, result.match(), result.score(),
+                    request.captureNanos, request.verifyNanos, System.nanoTime() - start);
+            return result;
+        } catch (ExecutionException e) {
+            audit.record(userName != null ? AuditLog.EventType.VERIFY : AuditLog.EventType.IDENTIFY,
+                    userName, door, false, 0.0, request.captureNanos, request.verifyNanos, System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    private void handle(HttpExchange exchange, boolean verify) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendJson(exchange, 405, "{\"error\":\"POST required\"}");
+                return;
+            }
+
+            Map<String, String> parameters = queryParameters(exchange.getRequestURI().getRawQuery());
+            String door = parameters.getOrDefault("door", exchange.getRemoteAddress().getAddress().getHostAddress());
+            String userName = null;
+            if (verify) {
+                userName = parameters.get("user");
+                if (userName == null || userName.isEmpty()) {
+                    sendJson(exchange, 400, "{\"error\":\"missing user\"}");
+                    return;
+                }
+                if (!service.isRegistered(userName)) {
+                    sendJson(exchange, 404, "{\"error\":\"user not found\"}");
+                    return;
+                }
+            }
+
+            String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (contentLength != null && parseLength(contentLength) > MAX_BODY_BYTES) {
+                sendJson(exchange, 413, "{\"error\":\"request too large\"}");
+                return;
+            }
+            if (!inFlight.tryAcquire()) {
+                sendJson(exchange, 503, "{\"error\":\"server busy\"}");
+                return;
+            }
+            try {
+                List<Mat> frames;
+                try {
+                    frames = readFrames(exchange.getRequestBody());
+                } catch (IOException e) {
+                    sendJson(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}");
+                    return;
+                }
+                if (frames.isEmpty()) {
+                    sendJson(exchange, 400, "{\"error\":\"no frames\"}");
+                    return;
+                }
+
+                try {
+                    FaceVerificationService.Result result = submit(userName, frames, door);
+                    sendJson(exchange, 200, String.format(Locale.ROOT,
+                            "{\"user\":%s,\"match\":%b,\"score\":%.6f,\"liveImages\":%d}",
+                            result.userName() == null ? "null" : quote(result.userName()), result.match(),
+                            result.score(), result.liveImages()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    sendJson(exchange, 503, "{\"error\":\"server stopping\"}");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof InterruptedException) {
+                        sendJson(exchange, 503, "{\"error\":\"server stopping\"}");
+                        return;
+                    }
+                    LOGGER.log(Level.SEVERE, "Error during verification", e.getCause());
+                    sendJson(exchange, 500, "{\"error\":\"verification failed\"}");
+                }
+            } finally {
+                inFlight.release();
+            }
+        }
+    }
+
+    private void dispatchLoop() {
+        while (isRunning) {
+            List<PendingRequest> batch = new ArrayList<>();
+            try {
+                batch.add(pending.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BATCH_WINDOW_MS);
+                while (batch.size() < MAX_BATCH_SIZE) {
+                    PendingRequest next = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                batch.forEach(request -> fail(request, e));
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            // The batch runs on its own thread so the dispatcher keeps collecting the next one
+            try {
+                executor.execute(() -> processBatch(batch));
+            } catch (RejectedExecutionException e) {
+                batch.forEach(request -> fail(request, e));
+            }
+        }
+    }
+
+    private void processBatch(List<PendingRequest> batch) {
+        List<Future<FaceVerificationService.Capture>> captures = new ArrayList<>();
+        List<Future<?>> comparisons = new ArrayList<>();
+        Map<String, List<Mat>> registered = new HashMap<>();
+        try {
+            // Detection for every request of the batch runs in parallel
+            for (PendingRequest request : batch) {
+                captures.add(executor.submit(() -> {
+                    long start = System.nanoTime();
+                    FaceVerificationService.Capture capture = service.capture(request.frames);
+                    request.captureNanos = System.nanoTime() - start;
+                    return capture;
+                }));
+            }
+
+            // Registered images are loaded once per verified user for the whole batch
+            for (PendingRequest request : batch) {
+                if (request.userName != null && !registered.containsKey(request.userName)) {
+                    registered.put(request.userName, service.loadRegisteredImages(request.userName));
+                }
+            }
+
+            List<PendingRequest> identifyRequests = new ArrayList<>();
+            List<Future<FaceVerificationService.Capture>> identifyCaptures = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                PendingRequest request = batch.get(i);
+                Future<FaceVerificationService.Capture> capture = captures.get(i);
+                if (request.userName == null) {
+                    identifyRequests.add(request);
+                    identifyCaptures.add(capture);
+                    continue;
+                }
+                comparisons.add(executor.submit(() -> {
+                    try {
+                        List<Mat> liveImages = capture.get().getLiveImages();
+                        long start = System.nanoTime();
+                        FaceVerificationService.Result result = service.compare(request.userName, liveImages,
+                                registered.getOrDefault(request.userName, List.of()));
+                        request.verifyNanos = System.nanoTime() - start;
+                        request.result.complete(result);
+                    } catch (ExecutionException e) {
+                        request.result.completeExceptionally(e.getCause());
+                    } catch (Exception e) {
+                        request.result.completeExceptionally(e);
+                    }
+                }));
+            }
+
+            if (!identifyRequests.isEmpty()) {
+                identify(identifyRequests, identifyCaptures);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.forEach(request -> request.result.completeExceptionally(e));
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.SEVERE, "Error during identification", e.getCause());
+            batch.forEach(request -> request.result.completeExceptionally(e.getCause()));
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Error during verification", e);
+            batch.forEach(request -> request.result.completeExceptionally(e));
+        } finally {
+            // Nothing is released while a task of this batch may still be reading it
+            awaitAll(captures);
+            awaitAll(comparisons);
+            for (PendingRequest request : batch) {
+                request.result.completeExceptionally(new IllegalStateException("request was not processed"));
+                request.frames.forEach(Mat::release);
+            }
+            for (Future<FaceVerificationService.Capture> capture : captures) {
+                if (capture.state() == Future.State.SUCCESS) {
+                    capture.resultNow().release();
+                }
+            }
+            registered.values().forEach(images -> images.forEach(Mat::release));
+        }
+    }
+
+    /**
+     * Finds the best registered user for every identify request of a batch. Like
+     * {@link FaceVerificationService#identify}, only one user's registration is in memory at a time:
+     * it is scored against the captures of all requests, then released.
+     */
+    private void identify(List<PendingRequest> requests, List<Future<FaceVerificationService.Capture>> captures)
+            throws InterruptedException, ExecutionException {
+        List<PendingRequest> active = new ArrayList<>();
+        List<List<Mat>> liveImages = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            try {
+                liveImages.add(captures.get(i).get().getLiveImages());
+                active.add(requests.get(i));
+            } catch (ExecutionException e) {
+                requests.get(i).result.completeExceptionally(e.getCause());
+            }
+        }
+
+        FaceVerificationService.Result[] best = new FaceVerificationService.Result[active.size()];
+        for (int i = 0; i < best.length; i++) {
+            best[i] = new FaceVerificationService.Result(null, false, 0.0, liveImages.get(i).size());
+        }
+        long start = System.nanoTime();
+        for (String userName : service.listUsers()) {
+            List<Mat> registeredImages = service.loadRegisteredImages(userName);
+            List<Future<FaceVerificationService.Result>> scores = new ArrayList<>();
+            try {
+                for (List<Mat> images : liveImages) {
+                    scores.add(executor.submit(() -> service.compare(userName, images, registeredImages)));
+                }
+                for (int i = 0; i < scores.size(); i++) {
+                    FaceVerificationService.Result result = scores.get(i).get();
+                    if (result.match() && result.score() > best[i].score()) {
+                        best[i] = result;
+                    }
+                }
+            } finally {
+                awaitAll(scores);
+                registeredImages.forEach(Mat::release);
+            }
+        }
+
+        long verifyNanos = System.nanoTime() - start;
+        for (int i = 0; i < active.size(); i++) {
+            active.get(i).verifyNanos = verifyNanos;
+            active.get(i).result.complete(best[i]);
+        }
+    }
+
+    /**
+     * Waits for every task to end, even if this thread is interrupted meanwhile.
+     */
+    private static void awaitAll(List<? extends Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    break; // Already reported through the request result
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void fail(PendingRequest request, Exception cause) {
+        request.result.completeExceptionally(cause);
+        request.frames.forEach(Mat::release);
+    }
+
+    /**
+     * Reads the length-prefixed frames of a request body, rejecting more than {@code MAX_FRAMES}
+     * frames or {@code MAX_BODY_BYTES} in total before decoding them.
+     */
+    static List<Mat> readFrames(InputStream body) throws IOException {
+        List<Mat> frames = new ArrayList<>();
+        DataInputStream in = new DataInputStream(body);
+        long totalBytes = 0;
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (length <= 0 || length > MAX_FRAME_BYTES) {
+                frames.forEach(Mat::release);
+                throw new IOException("invalid frame length " + length);
+            }
+            totalBytes += 4 + length;
+            if (frames.size() >= MAX_FRAMES || totalBytes > MAX_BODY_BYTES) {
+                frames.forEach(Mat::release);
+                throw new IOException("at most " + MAX_FRAMES + " frames and " + MAX_BODY_BYTES + " bytes per request");
+            }
+
+            byte[] jpeg = new byte[length];
+            try {
+                in.readFully(jpeg);
+            } catch (IOException e) {
+                frames.forEach(Mat::release); // Body ended (or failed) in the middle of a frame
+                throw e;
+            }
+            MatOfByte buffer = new MatOfByte(jpeg);
+            Mat frame = Imgcodecs.imdecode(buffer, Imgcodecs.IMREAD_COLOR);
+            buffer.release();
+            if (frame.empty()) {
+                frames.forEach(Mat::release);
+                throw new IOException("frame " + frames.size() + " is not a valid image");
+            }
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    private static Map<String, String> queryParameters(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int separator = pair.indexOf('=');
+                if (separator > 0) {
+                    parameters.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static long parseLength(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1; // Let the body reader enforce the limit
+        }
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        String cascadePath = args.length > 1 ? args[1] : FaceMatcher.DEFAULT_CASCADE;
+        String imagesFolder = args.length > 2 ? args[2] : FaceMatcher.IMAGES_FOLDER;
+        InetAddress bindAddress = args.length > 3 ? InetAddress.getByName(args[3]) : InetAddress.getLoopbackAddress();
+
+        VerificationServer server = new VerificationServer(new FaceVerificationService(cascadePath, imagesFolder),
+                new InetSocketAddress(bindAddress, port));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start();
+    }
+}
@@ -17,7 +17,6 @@ import javafx.stage.Stage;
 import org.opencv.core.*;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
 import org.opencv.videoio.VideoCapture;
 
 import java.io.BufferedWriter;
@@ -34,7 +33,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -42,24 +43,28 @@ import java.util.logging.SimpleFormatter;
 public class WebcamFaceDetectionFX extends Application {
 
     private static final Logger LOGGER = Logger.getLogger(WebcamFaceDetectionFX.class.getName());
-    private static final String IMAGES_FOLDER = "imagens_rosto"; // Base folder for user images
+    private static final String IMAGES_FOLDER = FaceMatcher.IMAGES_FOLDER; // Base folder for user images
     private static final String LIVE_FOLDER = "img_temp"; // Folder for live face capture
     private static final int CAPTURE_RATE = 1; // 1 second per frame (just for demonstration)
     private static final int CAPTURE_TIME = 10; // 30 seconds for face capture
-    private static final int MAX_LOGIN_CAPTURES = 5; // Number of images to capture for login
+    private static final int MAX_LOGIN_CAPTURES = FaceMatcher.MAX_LOGIN_CAPTURES; // Number of images to capture for login
     private static final int TOTAL_REGISTRATION_CAPTURES = 60; // Total captures for registration
-    private static final double SIMILARITY_THRESHOLD = 0.3; // 20% similarity threshold
     private static final int CLEANUP_INTERVAL = 30; // Clean up 'img_temp' folder every 30 seconds
+    private static final String CAMERA_ID = System.getProperty("aps.door", "camera-0"); // Door reported in the audit log
+    private static final AuditLog AUDIT = AuditLog.getDefault();
 
     private VideoCapture capture;
     private ImageView imageView;
-    private CascadeClassifier faceDetector;
+    private FaceVerificationService verificationService;
     private boolean isRunning = false;
     private Map<String, String> userMap = new HashMap<>(); // Stores user info (name_permission_hash)
     private String currentUserName; // Stores the current user's name
     private int captureCount = 0;
     private long startTime;
     private long lastCleanupTime = 0; // Track the last time the folder was cleaned
+    private SessionRecorder sessionRecorder; // Opt-in recording of the current login session
+    private long loginStartNanos; // Start of the current login, for the audit log
+    private long captureNanos; // Duration of the capture stage of the current login
 
     // Variável global para armazenar as informações do usuário
     private String loggedUserName; // Nome do usuário logado
@@ -75,10 +80,21 @@ public class WebcamFaceDetectionFX extends Application {
             FileHandler fileHandler = new FileHandler("FaceDetectionApp.log", true);
             SimpleFormatter formatter = new SimpleFormatter();
             fileHandler.setFormatter(formatter);
-            LOGGER.addHandler(fileHandler);
+            // Disk writes happen on a background thread so logging never stalls the capture loop
+            LOGGER.addHandler(AsyncLogHandler.start(fileHandler));
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Failed to set up logger", e);
         }
+
+        // The root console handler formats and writes to stderr on the calling thread; move it to a
+        // background thread too, for the records of every class
+        Logger root = Logger.getLogger("");
+        for (Handler handler : root.getHandlers()) {
+            if (handler instanceof ConsoleHandler) {
+                root.removeHandler(handler);
+                root.addHandler(AsyncLogHandler.start(handler));
+            }
+        }
     }
 
     @Override
@@ -99,19 +115,13 @@ public class WebcamFaceDetectionFX extends Application {
 
         // Initialize OpenCV
         capture = new VideoCapture(0);
-        faceDetector = new CascadeClassifier();
         String cascadePath = "C:\\WS-JetBrains\\aps_6sem\\Cascade\\haarcascade_frontalface_default.xml";
 
-        File cascadeFile = new File(cascadePath);
-        if (!cascadeFile.exists()) {
-            LOGGER.severe("Error: Classifier file does not exist at the specified path.");
-            LOGGER.severe("Path searched: " + cascadeFile.getAbsolutePath());
-            Platform.exit();
-            return;
-        }
-
-        if (!faceDetector.load(cascadePath)) {
-            LOGGER.severe("Error loading Haar Cascade classifier.");
+        // Detection and verification run in the headless service; this class is only its UI client
+        try {
+            verificationService = new FaceVerificationService(cascadePath, IMAGES_FOLDER, 1); // One camera, one detector
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error loading Haar Cascade classifier.", e);
             LOGGER.severe("Check if the path is correct and the file is not corrupted.");
             Platform.exit();
             return;
@@ -187,14 +197,14 @@ public class WebcamFaceDetectionFX extends Application {
         loginButton.setOnAction(e -> {
             String name = nameField.getText();
             loggedUserName = name;
-            // Search for user folder
-            File userFolder = new File(IMAGES_FOLDER + File.separator + name);
-            if (userFolder.exists() && userFolder.isDirectory()) {
+            // Search for user folder (only registered folder names are accepted)
+            if (verificationService.isRegistered(name)) {
                 // User folder found - Start live face capture
                 startLiveFaceCapture(primaryStage, name);
             } else {
                 // User not found
                 LOGGER.info("User not found: " + name);
+                AUDIT.record(AuditLog.EventType.USER_NOT_FOUND, name, CAMERA_ID, false, 0.0, 0, 0, 0);
                 showErrorMessage("Usuário não encontrado.");
             }
         });
@@ -236,6 +246,7 @@ public class WebcamFaceDetectionFX extends Application {
         }
 
         startTime = System.currentTimeMillis();
+        loginStartNanos = System.nanoTime();
         new Thread(() -> {
             capture = new VideoCapture(0);
             captureCount = 0;
@@ -251,14 +262,27 @@ public class WebcamFaceDetectionFX extends Application {
         // Define currentUserName
         currentUserName = name;
 
+        // Motion pre-stage: static frames keep the last detections instead of running the cascade
+        MotionDetector motionDetector = new MotionDetector();
+        Rect[] faces = new Rect[0];
+
+        // Only active when -Daps.recordDir is set
+        sessionRecorder = SessionRecorder.openIfEnabled(name);
+
         while (isRunning) {
             capture.read(frame);
             if (!frame.empty()) {
-                MatOfRect faceDetections = new MatOfRect();
                 try {
-                    faceDetector.detectMultiScale(frame, faceDetections);
+                    if (sessionRecorder != null) {
+                        sessionRecorder.recordFrame(frame); // Before the rectangles are drawn
+                    }
+
+                    faces = verificationService.detectFaces(motionDetector, frame);
+                    if (sessionRecorder != null) {
+                        sessionRecorder.recordDetections(faces);
+                    }
 
-                    for (Rect rect : faceDetections.toArray()) {
+                    for (Rect rect : faces) {
                         Imgproc.rectangle(frame, new Point(rect.x, rect.y),
                                 new Point(rect.x + rect.width, rect.y + rect.height),
                                 new Scalar(0, 255, 0), 2);
@@ -287,39 +311,60 @@ public class WebcamFaceDetectionFX extends Application {
                     } else {
                         // Capture ended
                         isRunning = false;
+                        captureNanos = System.nanoTime() - loginStartNanos;
                         Platform.runLater(() -> {
                             capture.release();
                             primaryStage.close();
                             compareLiveImagesWithRegistration(name); // Call the comparison function
                         });
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    isRunning = false; // The capture thread is being stopped
                 } catch (Exception e) {
                     LOGGER.log(Level.SEVERE, "Error during face detection", e);
                 }
             }
         }
+
+        logMotionStats(motionDetector);
+        motionDetector.release();
+        frame.release();
+    }
+
+    private void logMotionStats(MotionDetector motionDetector) {
+        LOGGER.info(String.format("Motion pre-stage skipped %d of %d frames (%.1f%%)",
+                motionDetector.getSkippedFrames(), motionDetector.getTotalFrames(),
+                motionDetector.getSkippedFraction() * 100));
     }
 
     private void compareLiveImagesWithRegistration(String name) {
-        // Get the registered images for the user
-        List<Mat> registeredImages = getRegisteredImages(name);
+        long verifyStart = System.nanoTime();
 
         // Get the live images captured during login
-        List<Mat> liveImages = getLiveImages();
-
-        // Calculate the similarity between the live images and the registered images
-        double totalSimilarity = 0.0;
-        for (Mat liveImage : liveImages) {
-            for (Mat registeredImage : registeredImages) {
-                totalSimilarity += calculateSimilarity(liveImage, registeredImage);
-            }
+        List<Mat> liveImages = FaceMatcher.loadImages(new File(LIVE_FOLDER));
+        if (sessionRecorder != null) {
+            recordLiveImages(); // The exact input of this verification, leftovers in 'img_temp' included
         }
 
-        // Calculate the average similarity
-        double averageSimilarity = totalSimilarity / (liveImages.size() * registeredImages.size());
+        // Compare the live images with the registered images of the user
+        FaceVerificationService.Result result = verificationService.verifyLiveImages(name, liveImages);
+        liveImages.forEach(Mat::release);
+        boolean success = result.match();
+
+        long now = System.nanoTime();
+        AUDIT.record(AuditLog.EventType.LOGIN, name, CAMERA_ID, success, result.score(),
+                captureNanos, now - verifyStart, now - loginStartNanos);
+
+        if (sessionRecorder != null) {
+            sessionRecorder.recordScore(result.score());
+            sessionRecorder.recordDecision(success);
+            sessionRecorder.close();
+            sessionRecorder = null;
+        }
 
         // Check if the average similarity is above the threshold
-        if (averageSimilarity >= SIMILARITY_THRESHOLD) {
+        if (success) {
             // Login successful
             showLoginSuccessPopup(name);
         } else {
@@ -328,53 +373,17 @@ public class WebcamFaceDetectionFX extends Application {
         }
     }
 
-    private List<Mat> getRegisteredImages(String userName) {
-        List<Mat> images = new ArrayList<>();
-        File userFolder = new File(IMAGES_FOLDER + File.separator + userName);
-        if (userFolder.exists() && userFolder.isDirectory()) {
-            File[] files = userFolder.listFiles((dir, name) -> name.endsWith(".jpg"));
-            if (files != null) {
-                for (File file : files) {
-                    Mat image = Imgcodecs.imread(file.getAbsolutePath());
-                    images.add(image);
-                }
-            }
-        }
-        return images;
-    }
-
-    private List<Mat> getLiveImages() {
-        List<Mat> images = new ArrayList<>();
-        File liveFolder = new File(LIVE_FOLDER);
-        if (liveFolder.exists() && liveFolder.isDirectory()) {
-            File[] files = liveFolder.listFiles((dir, name) -> name.endsWith(".jpg"));
-            if (files != null) {
-                for (File file : files) {
-                    Mat image = Imgcodecs.imread(file.getAbsolutePath());
-                    images.add(image);
+    private void recordLiveImages() {
+        File[] files = new File(LIVE_FOLDER).listFiles((dir, name) -> name.endsWith(".jpg"));
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    sessionRecorder.recordLiveImage(file.getName(), Files.readAllBytes(file.toPath()));
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Error recording live image", e);
                 }
             }
         }
-        return images;
-    }
-
-    private double calculateSimilarity(Mat image1, Mat image2) {
-        // Convert images to grayscale
-        Mat grayImage1 = new Mat();
-        Imgproc.cvtColor(image1, grayImage1, Imgproc.COLOR_BGR2GRAY);
-
-        Mat grayImage2 = new Mat();
-        Imgproc.cvtColor(image2, grayImage2, Imgproc.COLOR_BGR2GRAY);
-
-        // Calculate the normalized cross-correlation coefficient
-        Mat result = new Mat();
-        Imgproc.matchTemplate(grayImage1, grayImage2, result, Imgproc.TM_CCOEFF_NORMED);
-
-        // Get the maximum similarity value
-        Core.MinMaxLocResult mmr = Core.minMaxLoc(result);
-        double similarity = mmr.maxVal;
-
-        return similarity;
     }
 
     private void showLoginSuccessPopup(String name) {
@@ -464,14 +473,17 @@ public class WebcamFaceDetectionFX extends Application {
         // Define currentUserName
         currentUserName = name;
 
+        // Motion pre-stage: static frames keep the last detections instead of running the cascade
+        MotionDetector motionDetector = new MotionDetector();
+        Rect[] faces = new Rect[0];
+
         while (isRunning) {
             capture.read(frame);
             if (!frame.empty()) {
-                MatOfRect faceDetections = new MatOfRect();
                 try {
-                    faceDetector.detectMultiScale(frame, faceDetections);
+                    faces = verificationService.detectFaces(motionDetector, frame);
 
-                    for (Rect rect : faceDetections.toArray()) {
+                    for (Rect rect : faces) {
                         Imgproc.rectangle(frame, new Point(rect.x, rect.y),
                                 new Point(rect.x + rect.width, rect.y + rect.height),
                                 new Scalar(0, 255, 0), 2);
@@ -501,17 +513,26 @@ public class WebcamFaceDetectionFX extends Application {
                     } else {
                         // Capture ended
                         isRunning = false;
+                        AUDIT.record(AuditLog.EventType.REGISTRATION, name, CAMERA_ID, true, 0.0,
+                                (endTime - startTime) * 1_000_000, 0, 0);
                         Platform.runLater(() -> {
                             capture.release();
                             primaryStage.close();
                             //showRegistrationSuccessMessage(name, permission);
                         });
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    isRunning = false; // The capture thread is being stopped
                 } catch (Exception e) {
                     LOGGER.log(Level.SEVERE, "Error during face detection", e);
                 }
             }
         }
+
+        logMotionStats(motionDetector);
+        motionDetector.release();
+        frame.release();
     }
 
     private void showRegistrationSuccessMessage(String name, String permission) {
@@ -578,6 +599,7 @@ public class WebcamFaceDetectionFX extends Application {
             MatOfByte buffer = new MatOfByte();
             Imgcodecs.imencode(".jpg", frame, buffer);
             byte[] bytes = buffer.toArray();
+            buffer.release(); // Free the native buffer now instead of waiting for the GC
             Files.write(Paths.get(IMAGES_FOLDER + File.separator + imagePath), bytes); // Combine with IMAGES_FOLDER
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Error saving image", e);
@@ -590,6 +612,7 @@ public class WebcamFaceDetectionFX extends Application {
             MatOfByte buffer = new MatOfByte();
             Imgcodecs.imencode(".jpg", frame, buffer);
             byte[] bytes = buffer.toArray();
+            buffer.release(); // Free the native buffer now instead of waiting for the GC
             Files.write(Paths.get(LIVE_FOLDER + File.separator + imagePath), bytes); // Combine with LIVE_FOLDER
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Error saving image", e);
@@ -670,13 +693,15 @@ public class WebcamFaceDetectionFX extends Application {
         double similarity = 1 - ((double) hammingDistance / hash1.length());
 
         // Compare similarity against threshold
-        return similarity >= SIMILARITY_THRESHOLD;
+        return similarity >= FaceMatcher.SIMILARITY_THRESHOLD;
     }
 
     private Image mat2Image(Mat frame) {
         MatOfByte buffer = new MatOfByte();
         Imgcodecs.imencode(".png", frame, buffer);
-        return new Image(new ByteArrayInputStream(buffer.toArray()));
+        byte[] bytes = buffer.toArray();
+        buffer.release(); // Called for every frame; the native buffer must not wait for the GC
+        return new Image(new ByteArrayInputStream(bytes));
     }
 
     private void cleanupLiveFolder() {
@@ -712,6 +737,9 @@ public class WebcamFaceDetectionFX extends Application {
         if (capture != null) {
             capture.release();
         }
+        if (sessionRecorder != null) {
+            sessionRecorder.close();
+        }
     }
 
     public static void main(String[] args) {
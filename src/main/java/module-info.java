@@ -3,6 +3,7 @@ module br.aps.aps_6sem {
     requires javafx.fxml;
     requires opencv;
     requires java.logging;
+    requires jdk.httpserver;
 
 
     opens br.aps.aps_6sem to javafx.fxml;
@@ -0,0 +1,103 @@
+package br.aps.aps_6sem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditLogTest {
+
+    @TempDir
+    Path tempDir;
+
+    private List<AuditLog.Event> readAll() throws IOException {
+        List<AuditLog.Event> events = new ArrayList<>();
+        for (File file : AuditLog.listFiles(tempDir.toFile())) {
+            events.addAll(AuditQuery.readEvents(file));
+        }
+        return events;
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        AuditLog log = AuditLog.start(tempDir.toFile());
+        assertTrue(log.record(AuditLog.EventType.LOGIN, "Eduardo", "porta-1", true, 0.42, 10, 20, 30));
+        assertTrue(log.record(AuditLog.EventType.USER_NOT_FOUND, null, "porta-2", false, 0.0, 0, 0, 0));
+        log.close();
+
+        List<AuditLog.Event> events = readAll();
+        assertEquals(2, events.size());
+
+        AuditLog.Event login = events.get(0);
+        assertEquals(AuditLog.EventType.LOGIN, login.type());
+        assertEquals("Eduardo", login.userName());
+        assertEquals("porta-1", login.camera());
+        assertTrue(login.success());
+        assertEquals(0.42, login.score());
+        assertEquals(10, login.captureNanos());
+        assertEquals(20, login.verifyNanos());
+        assertEquals(30, login.totalNanos());
+
+        AuditLog.Event notFound = events.get(1);
+        assertEquals(AuditLog.EventType.USER_NOT_FOUND, notFound.type());
+        assertEquals("", notFound.userName());
+        assertFalse(notFound.success());
+    }
+
+    @Test
+    void longNamesAreTruncatedInsteadOfBreakingTheFile() throws IOException {
+        String longName = "é".repeat(70_000); // More than 65535 bytes in modified UTF-8
+        AuditLog log = AuditLog.start(tempDir.toFile());
+        log.record(AuditLog.EventType.LOGIN, longName, "porta-1", false, 0.0, 0, 0, 0);
+        log.record(AuditLog.EventType.LOGIN, "Eduardo", "porta-1", true, 0.5, 0, 0, 0);
+        log.close();
+
+        List<AuditLog.Event> events = readAll();
+        assertEquals(2, events.size());
+        assertEquals(longName.substring(0, AuditLog.MAX_STRING_CHARS), events.get(0).userName());
+        assertEquals("Eduardo", events.get(1).userName());
+    }
+
+    @Test
+    void truncateDoesNotSplitSurrogatePairs() {
+        String name = "a".repeat(AuditLog.MAX_STRING_CHARS - 1) + "😀";
+        assertEquals("a".repeat(AuditLog.MAX_STRING_CHARS - 1), AuditLog.truncate(name));
+        assertEquals("", AuditLog.truncate(null));
+    }
+
+    @Test
+    void unknownEventTypeSkipsTheRestOfTheFile() throws IOException {
+        File file = new File(tempDir.toFile(), AuditLog.FILE_PREFIX + "0-0000" + AuditLog.FILE_EXTENSION);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(AuditLog.MAGIC);
+            out.writeInt(AuditLog.VERSION);
+            writeRecord(out, AuditLog.EventType.LOGIN.ordinal());
+            writeRecord(out, 99);
+            writeRecord(out, AuditLog.EventType.LOGIN.ordinal());
+        }
+
+        List<AuditLog.Event> events = AuditQuery.readEvents(file);
+        assertEquals(1, events.size());
+        assertEquals("Eduardo", events.get(0).userName());
+    }
+
+    private static void writeRecord(DataOutputStream out, int type) throws IOException {
+        out.writeLong(1L);
+        out.writeByte(type);
+        out.writeUTF("Eduardo");
+        out.writeUTF("porta-1");
+        out.writeBoolean(true);
+        out.writeDouble(0.5);
+        out.writeLong(0);
+        out.writeLong(0);
+        out.writeLong(0);
+    }
+}
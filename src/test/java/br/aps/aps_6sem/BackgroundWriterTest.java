@@ -0,0 +1,56 @@
+package br.aps.aps_6sem;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackgroundWriterTest {
+
+    @Test
+    void sleepingWriterIsWokenByTheNextItem() throws InterruptedException {
+        CountDownLatch written = new CountDownLatch(1000);
+        BackgroundWriter<Integer> writer = new BackgroundWriter<>("test-writer", 64, item -> written.countDown());
+        writer.start();
+        for (int i = 0; i < 1000; i++) {
+            if (i % 100 == 0) {
+                Thread.sleep(5); // Let the writer run out of work and park
+            }
+            while (!writer.offer(i)) {
+                Thread.onSpinWait();
+            }
+        }
+        assertTrue(written.await(5, TimeUnit.SECONDS), "writer did not wake up");
+        writer.close();
+    }
+
+    @Test
+    void closeWritesEverythingQueuedAndClosesTheSink() {
+        List<Integer> items = new ArrayList<>();
+        boolean[] closed = {false};
+        BackgroundWriter<Integer> writer = new BackgroundWriter<>("test-writer", 16, new BackgroundWriter.Sink<>() {
+            @Override
+            public void write(Integer item) {
+                items.add(item);
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            assertTrue(writer.offer(i));
+        }
+        writer.start();
+        writer.close();
+
+        assertEquals(10, items.size());
+        assertTrue(closed[0]);
+        assertFalse(writer.offer(10));
+    }
+}
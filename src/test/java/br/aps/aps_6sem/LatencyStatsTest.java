@@ -0,0 +1,64 @@
+package br.aps.aps_6sem;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyStatsTest {
+
+    @Test
+    void everyValueFallsInsideItsBucket() {
+        for (long value = 0; value < 1L << 41; value = value * 3 / 2 + 1) {
+            int bucket = LatencyStats.bucketOf(value);
+            if (value < 1L << 40) {
+                assertTrue(value <= LatencyStats.upperBound(bucket), "value " + value + " above its bucket");
+            }
+            if (bucket > 0) {
+                assertTrue(LatencyStats.upperBound(bucket - 1) < value, "value " + value + " below its bucket");
+            }
+        }
+    }
+
+    @Test
+    void percentilesAreWithinTheBucketError() {
+        LatencyStats stats = new LatencyStats();
+        for (int millis = 1; millis <= 1000; millis++) {
+            stats.record(millis * 1_000_000L);
+        }
+        assertEquals(1000, stats.getCount());
+        assertEquals(500.0, stats.percentileMillis(50), 500.0 * 0.07);
+        assertEquals(990.0, stats.percentileMillis(99), 990.0 * 0.07);
+        assertEquals(1000.0, stats.maxMillis());
+        assertEquals(500.5, stats.meanMillis(), 1e-9);
+    }
+
+    @Test
+    void emptyStatsReportZero() {
+        LatencyStats stats = new LatencyStats();
+        assertEquals(0, stats.getCount());
+        assertEquals(0.0, stats.percentileMillis(99));
+        assertEquals(0.0, stats.meanMillis());
+    }
+
+    @Test
+    void concurrentRecordsAreAllCounted() throws InterruptedException {
+        LatencyStats stats = new LatencyStats();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    stats.record(i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(800_000, stats.getCount());
+    }
+}
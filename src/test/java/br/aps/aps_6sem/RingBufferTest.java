@@ -0,0 +1,85 @@
+package br.aps.aps_6sem;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingBufferTest {
+
+    private static final int PRODUCERS = 8;
+    private static final int ITEMS_PER_PRODUCER = 200_000;
+
+    @Test
+    void rejectsCapacityThatIsNotAPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new RingBuffer<Integer>(3));
+        assertThrows(IllegalArgumentException.class, () -> new RingBuffer<Integer>(1));
+    }
+
+    @Test
+    void offerFailsWhenFullUntilTheConsumerPolls() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+
+        assertEquals(0, (int) buffer.poll());
+        assertTrue(buffer.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, (int) buffer.poll());
+        }
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    void manyProducersKeepTheirOwnOrder() throws InterruptedException {
+        RingBuffer<Long> buffer = new RingBuffer<>(1024); // Small enough to be full most of the time
+        CountDownLatch ready = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long i = 0; i < ITEMS_PER_PRODUCER; i++) {
+                    Long item = producer * ITEMS_PER_PRODUCER + i;
+                    while (!buffer.offer(item)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+
+        ready.countDown();
+        long[] next = new long[PRODUCERS]; // Next expected sequence number of each producer
+        long received = 0;
+        while (received < (long) PRODUCERS * ITEMS_PER_PRODUCER) {
+            Long item = buffer.poll();
+            if (item == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+            int producer = (int) (item / ITEMS_PER_PRODUCER);
+            assertEquals(next[producer], item % ITEMS_PER_PRODUCER);
+            next[producer]++;
+            received++;
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertNull(buffer.poll());
+        for (long count : next) {
+            assertEquals(ITEMS_PER_PRODUCER, count);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package br.aps.aps_6sem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opencv.core.Rect;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionRecorderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private File writeRecording() throws IOException {
+        File file = tempDir.resolve("session" + SessionRecorder.EXTENSION).toFile();
+        SessionRecorder recorder = new SessionRecorder(file, "Eduardo");
+        recorder.recordDetections(new Rect[]{new Rect(1, 2, 3, 4), new Rect(5, 6, 7, 8)});
+        recorder.recordLiveImage("live_0.jpg", new byte[]{1, 2, 3});
+        recorder.recordScore(0.42);
+        recorder.recordDecision(true);
+        recorder.close();
+        return file;
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        try (SessionReader reader = new SessionReader(writeRecording())) {
+            assertEquals("Eduardo", reader.getUserName());
+
+            SessionReader.Event detections = reader.next();
+            assertEquals(SessionRecorder.TAG_DETECTIONS, detections.tag);
+            assertEquals(2, detections.faces.length);
+            assertEquals(5, detections.faces[1].x);
+            assertEquals(8, detections.faces[1].height);
+
+            SessionReader.Event liveImage = reader.next();
+            assertEquals(SessionRecorder.TAG_LIVE_IMAGE, liveImage.tag);
+            assertEquals("live_0.jpg", liveImage.name);
+            assertArrayEquals(new byte[]{1, 2, 3}, liveImage.data);
+
+            SessionReader.Event score = reader.next();
+            assertEquals(SessionRecorder.TAG_SCORE, score.tag);
+            assertEquals(0.42, score.score);
+
+            SessionReader.Event decision = reader.next();
+            assertEquals(SessionRecorder.TAG_DECISION, decision.tag);
+            assertTrue(decision.success);
+            assertTrue(decision.nanos >= score.nanos);
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void truncatedRecordingEndsWithoutError() throws IOException {
+        File file = writeRecording();
+        byte[] complete = Files.readAllBytes(file.toPath());
+
+        // Cut the file at every length: reading must end cleanly, never throw in the middle of a record
+        for (int length = complete.length - 1; length > 0; length--) {
+            try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+                truncated.setLength(length);
+            }
+            SessionReader reader;
+            try {
+                reader = new SessionReader(file);
+            } catch (IOException e) {
+                continue; // Header cut short: not a readable recording at all
+            }
+            try (reader) {
+                int events = 0;
+                while (reader.next() != null) {
+                    events++;
+                }
+                assertTrue(events <= 4);
+            }
+        }
+    }
+
+    /**
+     * A complete recording holding one record whose body is written by {@code body}.
+     */
+    private File writeRawRecording(byte tag, RecordBody body) throws IOException {
+        File file = tempDir.resolve("corrupt" + SessionRecorder.EXTENSION).toFile();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(SessionRecorder.MAGIC);
+            out.writeInt(SessionRecorder.VERSION);
+            out.writeUTF("Eduardo");
+            out.writeLong(0L);
+            out.writeByte(tag);
+            out.writeLong(0L);
+            body.write(out);
+            out.write(new byte[64]); // Padding, so a bad length is not just reported as end of file
+            out.writeByte(SessionRecorder.TAG_END);
+        }
+        return file;
+    }
+
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void assertCorrupt(File file) throws IOException {
+        try (SessionReader reader = new SessionReader(file)) {
+            assertThrows(IOException.class, reader::next);
+        }
+    }
+
+    @Test
+    void corruptLengthsAreReportedAsIOException() throws IOException {
+        assertCorrupt(writeRawRecording(SessionRecorder.TAG_FRAME, out -> {
+            out.writeInt(480);
+            out.writeInt(640);
+            out.writeInt(16); // CV_8UC3
+            out.writeInt(-1);
+        }));
+        assertCorrupt(writeRawRecording(SessionRecorder.TAG_FRAME, out -> {
+            out.writeInt(480);
+            out.writeInt(640);
+            out.writeInt(16);
+            out.writeInt(Integer.MAX_VALUE);
+        }));
+        assertCorrupt(writeRawRecording(SessionRecorder.TAG_DETECTIONS, out -> out.writeInt(Integer.MAX_VALUE)));
+        assertCorrupt(writeRawRecording(SessionRecorder.TAG_LIVE_IMAGE, out -> {
+            out.writeUTF("live_0.jpg");
+            out.writeInt(-5);
+        }));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        File file = tempDir.resolve("other.bin").toFile();
+        Files.write(file.toPath(), new byte[64]);
+        assertThrows(IOException.class, () -> new SessionReader(file));
+    }
+
+    @Test
+    void safeFileNameStaysInsideTheFolder() {
+        assertEquals("Eduardo Castro", SessionRecorder.safeFileName("Eduardo Castro"));
+        assertEquals("José", SessionRecorder.safeFileName("José"));
+        assertEquals("______etc_passwd", SessionRecorder.safeFileName("../../etc/passwd"));
+        assertEquals("C__Users_x", SessionRecorder.safeFileName("C:\\Users\\x"));
+        assertEquals("user", SessionRecorder.safeFileName(""));
+        assertEquals(64, SessionRecorder.safeFileName("a".repeat(200)).length());
+    }
+}